@@ -15,7 +15,8 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class PaymentInfo {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_info_seq")
+    @SequenceGenerator(name = "payment_info_seq", sequenceName = "payment_info_seq", allocationSize = 50)
     private Long id;
 
     @Enumerated(EnumType.STRING)
@@ -10,7 +10,8 @@ import lombok.*;
 @AllArgsConstructor
 public class ShippingAddress {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "shipping_addresses_seq")
+    @SequenceGenerator(name = "shipping_addresses_seq", sequenceName = "shipping_addresses_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -1,6 +1,5 @@
 package com.fourj.productservice.config;
 
-import com.fourj.productservice.event.dto.ProductEventDto;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.KafkaTemplate;
@@ -15,10 +14,11 @@ public class KafkaConfig {
     /**
      * KafkaTemplate để phát sự kiện
      * Bean này được tạo tự động bởi Spring Boot từ cấu hình application.yml
-     * nhưng chúng ta thêm ở đây để tường minh hơn
+     * nhưng chúng ta thêm ở đây để tường minh hơn.
+     * Value là Object để dùng chung cho các loại sự kiện
      */
     @Bean
-    public KafkaTemplate<String, ProductEventDto> kafkaTemplate(ProducerFactory<String, ProductEventDto> producerFactory) {
+    public KafkaTemplate<String, Object> kafkaTemplate(ProducerFactory<String, Object> producerFactory) {
         return new KafkaTemplate<>(producerFactory);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.fourj.productservice.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Khởi tạo cột tsvector, index GIN và trigram cho tìm kiếm full-text trên bảng products.
+ * Chạy sau khi Hibernate đã cập nhật schema; nếu thất bại (thiếu quyền tạo extension,...)
+ * tìm kiếm sẽ quay về truy vấn LIKE cũ.
+ */
+@Component
+@Slf4j
+public class ProductSearchSchemaInitializer {
+
+    private static final String SCRIPT = "db/product-fulltext-search.sql";
+
+    private final DataSource dataSource;
+    private final boolean enabled;
+    private volatile boolean ready = false;
+
+    public ProductSearchSchemaInitializer(DataSource dataSource,
+                                          @Value("${app.search.full-text-enabled:true}") boolean enabled) {
+        this.dataSource = dataSource;
+        this.enabled = enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeSearchSchema() {
+        if (!enabled) {
+            log.info("Full-text search bị tắt, sử dụng tìm kiếm LIKE");
+            return;
+        }
+
+        try {
+            new ResourceDatabasePopulator(new ClassPathResource(SCRIPT)).execute(dataSource);
+            ready = true;
+            log.info("Full-text search schema đã sẵn sàng");
+        } catch (Exception e) {
+            log.error("Không thể khởi tạo full-text search schema, sử dụng tìm kiếm LIKE", e);
+        }
+    }
+
+    /**
+     * Cho biết cột search_vector và các index đã được tạo thành công
+     */
+    public boolean isReady() {
+        return ready;
+    }
+}
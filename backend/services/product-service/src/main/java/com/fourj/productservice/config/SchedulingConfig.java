@@ -0,0 +1,12 @@
+package com.fourj.productservice.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Cấu hình kích hoạt scheduling trong ứng dụng
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
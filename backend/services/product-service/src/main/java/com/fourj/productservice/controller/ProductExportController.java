@@ -0,0 +1,47 @@
+package com.fourj.productservice.controller;
+
+import com.fourj.productservice.dto.ProductDto;
+import com.fourj.productservice.service.ProductService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Export catalog cho search-service dựng lại index. Trả về cả sản phẩm ngừng bán
+ * nên chỉ dành cho admin, không nằm dưới các endpoint GET public của /api/products.
+ */
+@RestController
+@RequestMapping("/api/admin/products")
+@Slf4j
+@PreAuthorize("hasAuthority('admin:access')")
+public class ProductExportController {
+
+    private final ProductService productService;
+
+    @Autowired
+    public ProductExportController(ProductService productService) {
+        this.productService = productService;
+    }
+
+    /**
+     * Export catalog (kể cả sản phẩm ngừng bán) theo khóa id tăng dần.
+     * Phía gọi chia [minId, maxId] thành nhiều khoảng và đọc song song, mỗi trang bắt đầu sau id cuối của trang trước.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<List<ProductDto>> exportProducts(
+            @RequestParam(defaultValue = "0") Long afterId,
+            @RequestParam(defaultValue = "" + Long.MAX_VALUE) Long toId,
+            @RequestParam(defaultValue = "500") int limit) {
+        return ResponseEntity.ok(productService.exportProducts(afterId, toId, Math.min(Math.max(limit, 1), 2000)));
+    }
+
+    @GetMapping("/export/bounds")
+    public ResponseEntity<Map<String, Long>> getExportBounds() {
+        return ResponseEntity.ok(productService.getExportBounds());
+    }
+}
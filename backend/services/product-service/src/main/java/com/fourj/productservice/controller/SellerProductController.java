@@ -1,9 +1,12 @@
 package com.fourj.productservice.controller;
 
+import com.fourj.productservice.dto.BulkUpsertResultDto;
 import com.fourj.productservice.dto.ProductCreateDto;
 import com.fourj.productservice.dto.ProductDto;
 import com.fourj.productservice.dto.ProductUpdateDto;
+import com.fourj.productservice.service.ProductBulkService;
 import com.fourj.productservice.service.ProductService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,12 +15,15 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+
 @RestController
 @RequestMapping("/api/products/seller")
 @Slf4j
@@ -25,10 +31,12 @@ import org.springframework.web.bind.annotation.*;
 public class SellerProductController {
 
     private final ProductService productService;
+    private final ProductBulkService productBulkService;
 
     @Autowired
-    public SellerProductController(ProductService productService) {
+    public SellerProductController(ProductService productService, ProductBulkService productBulkService) {
         this.productService = productService;
+        this.productBulkService = productBulkService;
     }
 
     @PostMapping
@@ -43,6 +51,19 @@ public class SellerProductController {
         return new ResponseEntity<>(productService.createProduct(productCreateDto), HttpStatus.CREATED);
     }
 
+    /**
+     * Bulk upsert sản phẩm theo sku từ file NDJSON hoặc CSV, body được đọc theo luồng
+     */
+    @PostMapping(value = "/bulk", consumes = {"application/x-ndjson", "text/csv"})
+    public ResponseEntity<BulkUpsertResultDto> bulkUpsertProducts(HttpServletRequest request,
+                                                                  @AuthenticationPrincipal Jwt jwt) throws IOException {
+        String sellerId = jwt.getSubject();
+        log.info("Seller {} bulk upsert sản phẩm ({})", sellerId, request.getContentType());
+
+        MediaType contentType = MediaType.parseMediaType(request.getContentType());
+        return ResponseEntity.ok(productBulkService.bulkUpsert(sellerId, contentType, request.getInputStream()));
+    }
+
     @GetMapping("/my-products")
     public ResponseEntity<Page<ProductDto>> getSellerProducts(
             @AuthenticationPrincipal Jwt jwt,
@@ -0,0 +1,23 @@
+package com.fourj.productservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BulkUpsertResultDto {
+    private long totalRows;
+    private long upserted;
+    private long failed;
+    private int chunks;
+    private long durationMs;
+
+    // Giới hạn số lỗi trả về, dạng "dòng N: lý do"
+    private List<String> errors;
+}
@@ -0,0 +1,28 @@
+package com.fourj.productservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Một dòng trong file bulk import (NDJSON hoặc CSV).
+ * Sản phẩm được upsert theo cặp (sellerId, sku).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductBulkRowDto {
+    private String sku;
+    private String name;
+    private String description;
+    private BigDecimal price;
+    private Integer stockQuantity;
+    private String imageUrl;
+    private Long categoryId;
+
+    // null: giữ nguyên thuộc tính cũ, danh sách rỗng: xóa toàn bộ thuộc tính
+    private List<ProductAttributeDto> attributes;
+}
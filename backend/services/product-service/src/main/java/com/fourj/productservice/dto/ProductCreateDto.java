@@ -15,6 +15,9 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 public class ProductCreateDto {
+    // Mã sản phẩm của seller, duy nhất trong phạm vi một seller
+    private String sku;
+
     @NotBlank(message = "Tên sản phẩm không được để trống")
     private String name;
 
@@ -15,6 +15,7 @@ import java.util.List;
 @Builder
 public class ProductDto {
     private Long id;
+    private String sku;
     private String name;
     private String description;
     private BigDecimal price;
@@ -1,62 +1,88 @@
 package com.fourj.productservice.event;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fourj.productservice.dto.ProductDto;
-import com.fourj.productservice.event.dto.ProductEventDto;
+import com.fourj.productservice.model.ProductOutboxEvent;
+import com.fourj.productservice.repository.ProductOutboxRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
 
 /**
- * Service để phát sự kiện Kafka
+ * Service để phát sự kiện sản phẩm.
+ * Sự kiện được ghi vào bảng outbox trong cùng transaction với thay đổi dữ liệu,
+ * việc gửi lên Kafka do ProductOutboxRelay đảm nhận.
  */
 @Service
+@Transactional
 @RequiredArgsConstructor
 @Slf4j
 public class ProductEventPublisher {
 
-    private final KafkaTemplate<String, ProductEventDto> kafkaTemplate;
+    public static final String PRODUCT_CREATED = "PRODUCT_CREATED";
+    public static final String PRODUCT_UPDATED = "PRODUCT_UPDATED";
+    public static final String PRODUCT_DELETED = "PRODUCT_DELETED";
+    public static final String PRODUCT_BULK_UPDATED = "PRODUCT_BULK_UPDATED";
 
-    @Value("${kafka.topics.product-events:product-events}")
-    private String productEventsTopic;
+    private final ProductOutboxRepository outboxRepository;
+    private final ObjectMapper objectMapper;
 
     /**
      * Phát sự kiện sản phẩm được tạo
      */
     public void publishProductCreated(ProductDto productDto) {
-        publishEvent("PRODUCT_CREATED", productDto);
+        publishEvent(PRODUCT_CREATED, productDto);
     }
 
     /**
      * Phát sự kiện sản phẩm được cập nhật
      */
     public void publishProductUpdated(ProductDto productDto) {
-        publishEvent("PRODUCT_UPDATED", productDto);
+        publishEvent(PRODUCT_UPDATED, productDto);
     }
 
     /**
      * Phát sự kiện sản phẩm bị xóa
      */
     public void publishProductDeleted(ProductDto productDto) {
-        publishEvent("PRODUCT_DELETED", productDto);
+        publishEvent(PRODUCT_DELETED, productDto);
+    }
+
+    /**
+     * Phát một sự kiện cho cả nhóm sản phẩm (mỗi chunk của bulk import)
+     */
+    public void publishProductsBulkUpdated(List<ProductDto> productDtos) {
+        ProductOutboxEvent event = new ProductOutboxEvent();
+        event.setEventType(PRODUCT_BULK_UPDATED);
+        event.setPayload(toJson(productDtos, PRODUCT_BULK_UPDATED));
+
+        outboxRepository.save(event);
+        log.debug("Queued {} event for {} products", PRODUCT_BULK_UPDATED, productDtos.size());
     }
 
     /**
-     * Phương thức chung để phát sự kiện
+     * Phương thức chung để ghi sự kiện vào outbox.
+     * Lỗi được ném ra để rollback transaction của thay đổi sản phẩm, tránh mất sự kiện.
      */
     private void publishEvent(String eventType, ProductDto productDto) {
-        ProductEventDto event = ProductEventDto.builder()
-                .eventType(eventType)
-                .productId(productDto.getId().toString())
-                .payload(productDto)
-                .build();
+        ProductOutboxEvent event = new ProductOutboxEvent();
+        event.setProductId(productDto.getId());
+        event.setEventType(eventType);
+        event.setPayload(toJson(productDto, eventType));
+
+        outboxRepository.save(event);
+        log.debug("Queued {} event for product: {}", eventType, productDto.getId());
+    }
 
+    private String toJson(Object payload, String eventType) {
         try {
-            kafkaTemplate.send(productEventsTopic, productDto.getId().toString(), event);
-            log.info("Published {} event for product: {}", eventType, productDto.getId());
-        } catch (Exception e) {
-            log.error("Failed to publish {} event for product: {}", eventType, productDto.getId(), e);
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Không thể serialize sự kiện " + eventType, e);
         }
     }
-} 
\ No newline at end of file
+}
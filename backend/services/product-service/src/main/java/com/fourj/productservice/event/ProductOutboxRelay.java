@@ -0,0 +1,171 @@
+package com.fourj.productservice.event;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fourj.productservice.dto.ProductDto;
+import com.fourj.productservice.event.dto.ProductBulkEventDto;
+import com.fourj.productservice.event.dto.ProductEventDto;
+import com.fourj.productservice.model.ProductOutboxEvent;
+import com.fourj.productservice.repository.ProductOutboxRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đọc sự kiện từ bảng outbox và gửi lên Kafka.
+ * Các sự kiện của cùng một sản phẩm trong một lượt quét được gộp thành một sự kiện
+ * mang trạng thái mới nhất, giúp giảm số message cho các sản phẩm cập nhật tồn kho liên tục.
+ * Mỗi chunk PRODUCT_BULK_UPDATED được gửi thành một message gồm các sản phẩm mà chunk là thay đổi mới nhất
+ * của chúng; sản phẩm đã có thay đổi sau chunk được gửi trong sự kiện của thay đổi đó.
+ * Sự kiện đơn có key là productId, còn sự kiện chunk không có key: search-service dùng version (id outbox)
+ * của từng sản phẩm nên thứ tự giữa các partition không làm ghi đè trạng thái mới bằng trạng thái cũ.
+ * Các message được gửi theo thứ tự id outbox.
+ * Sự kiện chỉ bị xóa khỏi outbox sau khi broker xác nhận (at-least-once).
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProductOutboxRelay {
+
+    private static final TypeReference<List<ProductDto>> PRODUCT_LIST = new TypeReference<>() {};
+
+    private final ProductOutboxRepository outboxRepository;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Value("${kafka.topics.product-events:product-events}")
+    private String productEventsTopic;
+
+    @Value("${app.outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.outbox.send-timeout-ms:10000}")
+    private long sendTimeoutMs;
+
+    /**
+     * Khoảng thời gian giữa các lượt quét cũng là cửa sổ gộp sự kiện
+     */
+    @Scheduled(fixedDelayString = "${app.outbox.coalesce-window-ms:1000}")
+    @Transactional
+    public void relayPendingEvents() {
+        List<ProductOutboxEvent> pending = outboxRepository.lockPendingEvents(batchSize);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Sự kiện đã gộp của mỗi sản phẩm (pending đã theo thứ tự id); version là id outbox của thay đổi cuối cùng
+        Map<Long, ProductEventDto> coalesced = new LinkedHashMap<>();
+        Set<Long> chunkIds = new HashSet<>();
+        for (ProductOutboxEvent outboxEvent : pending) {
+            if (ProductEventPublisher.PRODUCT_BULK_UPDATED.equals(outboxEvent.getEventType())) {
+                chunkIds.add(outboxEvent.getId());
+                for (ProductDto product : readBulkPayload(outboxEvent)) {
+                    if (product.getId() != null) {
+                        coalesced.put(product.getId(), toEventDto(
+                                ProductEventPublisher.PRODUCT_UPDATED, product.getId(), product, outboxEvent.getId(),
+                                coalesced.get(product.getId())));
+                    }
+                }
+                continue;
+            }
+
+            ProductEventDto event = toEventDto(outboxEvent, coalesced.get(outboxEvent.getProductId()));
+            if (event != null) {
+                coalesced.put(outboxEvent.getProductId(), event);
+            }
+        }
+
+        // Message cần gửi theo id outbox: sự kiện đơn của từng sản phẩm hoặc sự kiện của cả chunk
+        TreeMap<Long, Object> messages = new TreeMap<>();
+        for (ProductEventDto event : coalesced.values()) {
+            if (chunkIds.contains(event.getVersion())) {
+                ProductBulkEventDto bulkEvent = (ProductBulkEventDto) messages.computeIfAbsent(event.getVersion(),
+                        version -> ProductBulkEventDto.builder()
+                                .eventType(ProductEventPublisher.PRODUCT_BULK_UPDATED)
+                                .payload(new ArrayList<>())
+                                .version(version)
+                                .build());
+                bulkEvent.getPayload().add(event.getPayload());
+            } else {
+                messages.put(event.getVersion(), event);
+            }
+        }
+
+        List<CompletableFuture<?>> futures = new ArrayList<>(messages.size());
+        for (Object message : messages.values()) {
+            if (message instanceof ProductEventDto event) {
+                futures.add(kafkaTemplate.send(productEventsTopic, event.getProductId(), event));
+            } else {
+                futures.add(kafkaTemplate.send(productEventsTopic, message));
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Rollback để giữ lại sự kiện trong outbox, lượt quét sau sẽ gửi lại
+            throw new IllegalStateException("Không thể gửi " + futures.size()
+                    + " sự kiện sản phẩm lên Kafka", e);
+        }
+
+        outboxRepository.deleteAllInBatch(pending);
+        log.info("Relayed {} product events for {} products ({} outbox rows)",
+                messages.size(), coalesced.size(), pending.size());
+    }
+
+    private ProductEventDto toEventDto(ProductOutboxEvent outboxEvent, ProductEventDto previous) {
+        try {
+            ProductDto product = objectMapper.readValue(outboxEvent.getPayload(), ProductDto.class);
+            return toEventDto(outboxEvent.getEventType(), outboxEvent.getProductId(), product,
+                    outboxEvent.getId(), previous);
+        } catch (Exception e) {
+            // Bỏ qua bản ghi hỏng để không chặn các sự kiện phía sau
+            log.error("Invalid outbox payload, dropping event id: {}", outboxEvent.getId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Gộp sự kiện mới vào sự kiện trước đó của cùng sản phẩm.
+     * Payload luôn là trạng thái mới nhất; PRODUCT_CREATED được giữ nếu sản phẩm chưa bị xóa
+     * để phía consumer vẫn biết đây là sản phẩm mới.
+     */
+    private static ProductEventDto toEventDto(String eventType, Long productId, ProductDto product, Long outboxId,
+                                              ProductEventDto previous) {
+        if (previous != null
+                && ProductEventPublisher.PRODUCT_CREATED.equals(previous.getEventType())
+                && ProductEventPublisher.PRODUCT_UPDATED.equals(eventType)) {
+            eventType = ProductEventPublisher.PRODUCT_CREATED;
+        }
+        return ProductEventDto.builder()
+                .eventType(eventType)
+                .productId(productId.toString())
+                .payload(product)
+                .version(outboxId)
+                .build();
+    }
+
+    private List<ProductDto> readBulkPayload(ProductOutboxEvent outboxEvent) {
+        try {
+            return objectMapper.readValue(outboxEvent.getPayload(), PRODUCT_LIST);
+        } catch (Exception e) {
+            log.error("Invalid outbox payload, dropping event id: {}", outboxEvent.getId(), e);
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.fourj.productservice.event.dto;
+
+import com.fourj.productservice.dto.ProductDto;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * DTO đại diện cho sự kiện cập nhật nhiều sản phẩm cùng lúc (PRODUCT_BULK_UPDATED)
+ * Mỗi chunk của bulk import phát một sự kiện loại này, chỉ gồm các sản phẩm mà chunk là thay đổi mới nhất
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductBulkEventDto {
+    private String eventType;
+    private List<ProductDto> payload;
+    // Id của bản ghi outbox, cùng thứ tự với version của ProductEventDto; là version của từng sản phẩm
+    // trong payload nên search-service bỏ qua sản phẩm đã được ghi bởi sự kiện mới hơn dù message không có key
+    private Long version;
+}
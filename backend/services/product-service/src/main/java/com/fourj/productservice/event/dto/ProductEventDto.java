@@ -18,4 +18,7 @@ public class ProductEventDto {
     private String eventType;
     private String productId;
     private ProductDto payload;
+    // Id của bản ghi outbox mới nhất được gộp vào sự kiện, tăng dần theo thứ tự thay đổi;
+    // search-service dùng làm version để bỏ qua sự kiện cũ đến sau sự kiện mới hơn
+    private Long version;
 }
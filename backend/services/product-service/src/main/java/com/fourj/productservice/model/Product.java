@@ -14,7 +14,10 @@ import java.util.Objects;
 import java.util.Set;
 
 @Entity
-@Table(name = "products")
+@Table(name = "products", uniqueConstraints = {
+        // Khóa tự nhiên cho bulk upsert theo từng seller
+        @UniqueConstraint(name = "uk_products_seller_sku", columnNames = {"seller_id", "sku"})
+})
 @Getter
 @Setter
 @ToString(exclude = {"category", "attributes"})
@@ -22,9 +25,13 @@ import java.util.Set;
 @AllArgsConstructor
 public class Product {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "products_seq")
+    @SequenceGenerator(name = "products_seq", sequenceName = "products_seq", allocationSize = 50)
     private Long id;
 
+    @Column(length = 100)
+    private String sku;
+
     @Column(nullable = false)
     private String name;
 
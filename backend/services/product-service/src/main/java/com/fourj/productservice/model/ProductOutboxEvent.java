@@ -0,0 +1,59 @@
+package com.fourj.productservice.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Sự kiện sản phẩm chờ phát lên Kafka (transactional outbox).
+ * Được ghi cùng transaction với thay đổi sản phẩm, ProductOutboxRelay sẽ gửi và xóa sau khi broker xác nhận.
+ */
+@Entity
+@Table(name = "product_outbox")
+@Getter
+@Setter
+@ToString(exclude = "payload")
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductOutboxEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // null với sự kiện PRODUCT_BULK_UPDATED (payload là danh sách sản phẩm)
+    @Column(name = "product_id")
+    private Long productId;
+
+    @Column(name = "event_type", nullable = false, length = 50)
+    private String eventType;
+
+    // ProductDto (hoặc danh sách ProductDto) dạng JSON tại thời điểm thay đổi
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ProductOutboxEvent that = (ProductOutboxEvent) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+}
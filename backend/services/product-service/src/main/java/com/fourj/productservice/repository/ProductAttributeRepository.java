@@ -4,10 +4,12 @@ import com.fourj.productservice.model.ProductAttribute;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface ProductAttributeRepository extends JpaRepository<ProductAttribute, Long> {
     List<ProductAttribute> findByProductId(Long productId);
+    List<ProductAttribute> findByProductIdIn(Collection<Long> productIds);
     void deleteByProductId(Long productId);
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package com.fourj.productservice.repository;
+
+import com.fourj.productservice.model.ProductOutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ProductOutboxRepository extends JpaRepository<ProductOutboxEvent, Long> {
+
+    // SKIP LOCKED để nhiều instance có thể chạy relay song song mà không gửi trùng
+    @Query(value = "SELECT * FROM product_outbox ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<ProductOutboxEvent> lockPendingEvents(@Param("limit") int limit);
+}
@@ -1,15 +1,18 @@
 package com.fourj.productservice.repository;
 
 import com.fourj.productservice.model.Product;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 
 @Repository
-public interface ProductRepository extends JpaRepository<Product, Long> {
+public interface ProductRepository extends JpaRepository<Product, Long>, ProductSearchRepository {
     Page<Product> findByActiveTrue(Pageable pageable);
     Page<Product> findByCategoryIdAndActiveTrue(Long categoryId, Pageable pageable);
     Page<Product> findByNameContainingIgnoreCaseAndActiveTrue(String name, Pageable pageable);
@@ -25,4 +28,14 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     
     // Phương thức tìm tất cả sản phẩm cả kích hoạt và không kích hoạt
     Page<Product> findAll(Pageable pageable);
-}
\ No newline at end of file
+
+    // Đọc theo khóa (id > afterId) cho export toàn bộ catalog, không dùng OFFSET nên mỗi trang có chi phí như nhau
+    @EntityGraph(attributePaths = "category")
+    List<Product> findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(Long afterId, Long toId, Limit limit);
+
+    @Query("select min(p.id) from Product p")
+    Long findMinId();
+
+    @Query("select max(p.id) from Product p")
+    Long findMaxId();
+}
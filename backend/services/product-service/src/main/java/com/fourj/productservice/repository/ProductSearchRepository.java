@@ -0,0 +1,19 @@
+package com.fourj.productservice.repository;
+
+import com.fourj.productservice.model.Product;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * Tìm kiếm full-text trên cột search_vector (tsvector + GIN) với trigram cho từ không đầy đủ
+ */
+public interface ProductSearchRepository {
+
+    /**
+     * Tìm sản phẩm đang active theo từ khóa, sắp xếp theo ts_rank
+     * khi pageable không chỉ định cột sắp xếp nào khác ngoài id
+     *
+     * @param sellerId null để tìm trên toàn bộ sản phẩm
+     */
+    Page<Product> fullTextSearch(String keyword, String sellerId, Pageable pageable);
+}
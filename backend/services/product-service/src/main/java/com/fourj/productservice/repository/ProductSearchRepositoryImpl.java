@@ -0,0 +1,128 @@
+package com.fourj.productservice.repository;
+
+import com.fourj.productservice.model.Product;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class ProductSearchRepositoryImpl implements ProductSearchRepository {
+
+    // Trigram index không dùng được với chuỗi ngắn hơn 3 ký tự
+    private static final int MIN_TRIGRAM_LENGTH = 3;
+
+    private static final String TS_QUERY = "to_tsquery('simple', f_unaccent(lower(:tsQuery)))";
+    private static final String NORMALIZED_NAME = "f_unaccent(lower(p.name))";
+
+    // Chỉ cho phép sắp xếp theo các cột đã biết để tránh SQL injection
+    private static final Map<String, String> SORTABLE_COLUMNS = Map.of(
+            "id", "p.id",
+            "name", "p.name",
+            "price", "p.price",
+            "stockQuantity", "p.stock_quantity",
+            "createdAt", "p.created_at",
+            "updatedAt", "p.updated_at"
+    );
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Page<Product> fullTextSearch(String keyword, String sellerId, Pageable pageable) {
+        String tsQuery = toPrefixTsQuery(keyword);
+        if (tsQuery.isEmpty()) {
+            return Page.empty(pageable);
+        }
+
+        String trimmedKeyword = keyword.trim();
+        boolean useTrigram = trimmedKeyword.length() >= MIN_TRIGRAM_LENGTH;
+
+        StringBuilder where = new StringBuilder(" FROM products p WHERE p.active = true");
+        if (sellerId != null) {
+            where.append(" AND p.seller_id = :sellerId");
+        }
+        where.append(" AND (p.search_vector @@ ").append(TS_QUERY);
+        if (useTrigram) {
+            where.append(" OR ").append(NORMALIZED_NAME)
+                    .append(" LIKE '%' || f_unaccent(lower(:likeKeyword)) || '%'");
+        }
+        where.append(")");
+
+        Query query = entityManager.createNativeQuery(
+                "SELECT p.*" + where + orderBy(pageable.getSort(), useTrigram), Product.class);
+        Query countQuery = entityManager.createNativeQuery("SELECT count(*)" + where);
+
+        for (Query q : List.of(query, countQuery)) {
+            q.setParameter("tsQuery", tsQuery);
+            if (sellerId != null) {
+                q.setParameter("sellerId", sellerId);
+            }
+            if (useTrigram) {
+                q.setParameter("likeKeyword", escapeLike(trimmedKeyword));
+            }
+        }
+        if (useTrigram && isRelevanceSort(pageable.getSort())) {
+            query.setParameter("keyword", trimmedKeyword);
+        }
+
+        if (pageable.isPaged()) {
+            query.setFirstResult((int) pageable.getOffset());
+            query.setMaxResults(pageable.getPageSize());
+        }
+
+        List<Product> content = query.getResultList();
+        long total = ((Number) countQuery.getSingleResult()).longValue();
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /**
+     * Chuyển từ khóa thành tsquery dạng "tu1:* & tu2:*" để khớp cả tiền tố của từ cuối đang gõ dở
+     */
+    private String toPrefixTsQuery(String keyword) {
+        if (keyword == null) {
+            return "";
+        }
+        return Arrays.stream(keyword.toLowerCase().split("[^\\p{L}\\p{N}]+"))
+                .filter(token -> !token.isEmpty())
+                .map(token -> token + ":*")
+                .collect(Collectors.joining(" & "));
+    }
+
+    private String orderBy(Sort sort, boolean useTrigram) {
+        if (isRelevanceSort(sort)) {
+            String order = " ORDER BY ts_rank(p.search_vector, " + TS_QUERY + ") DESC";
+            if (useTrigram) {
+                order += ", similarity(" + NORMALIZED_NAME + ", f_unaccent(lower(:keyword))) DESC";
+            }
+            return order + ", p.id";
+        }
+
+        String columns = sort.stream()
+                .filter(order -> SORTABLE_COLUMNS.containsKey(order.getProperty()))
+                .map(order -> SORTABLE_COLUMNS.get(order.getProperty()) + (order.isAscending() ? " ASC" : " DESC"))
+                .collect(Collectors.joining(", "));
+        return " ORDER BY " + columns + ", p.id";
+    }
+
+    /**
+     * Các controller mặc định sắp xếp theo id, khi đó kết quả được xếp theo độ liên quan
+     */
+    private boolean isRelevanceSort(Sort sort) {
+        return sort.isUnsorted()
+                || sort.stream().allMatch(order -> "id".equals(order.getProperty())
+                        || !SORTABLE_COLUMNS.containsKey(order.getProperty()));
+    }
+
+    private String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,15 @@
+package com.fourj.productservice.service;
+
+import com.fourj.productservice.dto.BulkUpsertResultDto;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface ProductBulkService {
+
+    /**
+     * Đọc tuần tự file NDJSON/CSV và upsert sản phẩm của seller theo từng chunk
+     */
+    BulkUpsertResultDto bulkUpsert(String sellerId, MediaType contentType, InputStream content) throws IOException;
+}
@@ -6,6 +6,9 @@ import com.fourj.productservice.dto.ProductUpdateDto;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.util.List;
+import java.util.Map;
+
 public interface ProductService {
     ProductDto createProduct(ProductCreateDto productCreateDto);
     ProductDto getProductById(Long id);
@@ -25,6 +28,10 @@ public interface ProductService {
     Page<ProductDto> getProductsByActiveStatus(boolean active, Pageable pageable);
     Page<ProductDto> getAllProductsIncludeInactive(Pageable pageable);
     
+    // Export toàn bộ catalog theo khoảng id cho search-service dựng lại index
+    List<ProductDto> exportProducts(Long afterId, Long toId, int limit);
+    Map<String, Long> getExportBounds();
+    
     // Phương thức giảm số lượng tồn kho sau khi thanh toán
     boolean updateStockQuantity(Long productId, int quantity);
 }
\ No newline at end of file
@@ -0,0 +1,180 @@
+package com.fourj.productservice.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fourj.productservice.dto.ProductAttributeDto;
+import com.fourj.productservice.dto.ProductBulkRowDto;
+import org.springframework.http.MediaType;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Đọc tuần tự từng dòng của file bulk import, không nạp toàn bộ file vào bộ nhớ.
+ * Hỗ trợ NDJSON (mỗi dòng một object JSON) và CSV có dòng header, ví dụ:
+ * sku,name,description,price,stockQuantity,imageUrl,categoryId,attributes
+ * Cột attributes có dạng "Màu:Đỏ;Size:M". Giá trị CSV không được chứa xuống dòng.
+ */
+class ProductBulkRowReader implements Closeable {
+
+    static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
+    // File CSV xuất từ Excel thường có BOM ở đầu
+    private static final String UTF8_BOM = "\uFEFF";
+
+    private final BufferedReader reader;
+    private final ObjectMapper objectMapper;
+    private final boolean csv;
+    private Map<String, Integer> csvColumns;
+    private long lineNumber;
+
+    ProductBulkRowReader(MediaType contentType, InputStream content, ObjectMapper objectMapper) {
+        if (!APPLICATION_NDJSON.isCompatibleWith(contentType) && !TEXT_CSV.isCompatibleWith(contentType)) {
+            throw new IllegalArgumentException("Định dạng không được hỗ trợ: " + contentType);
+        }
+        this.reader = new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8));
+        this.objectMapper = objectMapper;
+        this.csv = TEXT_CSV.isCompatibleWith(contentType);
+    }
+
+    /**
+     * Dòng dữ liệu tiếp theo (bỏ qua dòng trống và header CSV), null khi hết file
+     */
+    String nextLine() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber == 1 && line.startsWith(UTF8_BOM)) {
+                line = line.substring(1);
+            }
+            if (line.isBlank()) {
+                continue;
+            }
+            if (csv && csvColumns == null) {
+                readCsvHeader(line);
+                continue;
+            }
+            return line;
+        }
+        return null;
+    }
+
+    long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @throws IllegalArgumentException nếu dòng không đúng định dạng
+     */
+    ProductBulkRowDto parse(String line) {
+        if (!csv) {
+            try {
+                return objectMapper.readValue(line, ProductBulkRowDto.class);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("JSON không hợp lệ: " + e.getOriginalMessage());
+            }
+        }
+
+        List<String> fields = splitCsv(line);
+        ProductBulkRowDto row = new ProductBulkRowDto();
+        row.setSku(field(fields, "sku"));
+        row.setName(field(fields, "name"));
+        row.setDescription(field(fields, "description"));
+        row.setImageUrl(field(fields, "imageUrl"));
+
+        String price = field(fields, "price");
+        row.setPrice(price != null ? new BigDecimal(price) : null);
+        String stockQuantity = field(fields, "stockQuantity");
+        row.setStockQuantity(stockQuantity != null ? Integer.valueOf(stockQuantity) : null);
+        String categoryId = field(fields, "categoryId");
+        row.setCategoryId(categoryId != null ? Long.valueOf(categoryId) : null);
+
+        if (csvColumns.containsKey("attributes")) {
+            row.setAttributes(parseAttributes(field(fields, "attributes")));
+        }
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void readCsvHeader(String line) {
+        csvColumns = new HashMap<>();
+        List<String> header = splitCsv(line);
+        for (int i = 0; i < header.size(); i++) {
+            csvColumns.put(header.get(i).trim(), i);
+        }
+        if (!csvColumns.containsKey("sku")) {
+            throw new IllegalArgumentException("Header CSV thiếu cột sku");
+        }
+    }
+
+    private String field(List<String> fields, String column) {
+        Integer index = csvColumns.get(column);
+        if (index == null || index >= fields.size()) {
+            return null;
+        }
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private List<ProductAttributeDto> parseAttributes(String value) {
+        List<ProductAttributeDto> attributes = new ArrayList<>();
+        if (value == null) {
+            return attributes;
+        }
+        for (String pair : value.split(";")) {
+            int separator = pair.indexOf(':');
+            if (separator <= 0 || separator == pair.length() - 1) {
+                throw new IllegalArgumentException("Thuộc tính không hợp lệ: " + pair);
+            }
+            attributes.add(new ProductAttributeDto(null,
+                    pair.substring(0, separator).trim(), pair.substring(separator + 1).trim()));
+        }
+        return attributes;
+    }
+
+    /**
+     * Tách một dòng CSV, hỗ trợ giá trị trong dấu nháy kép và "" để escape
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    inQuotes = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,323 @@
+package com.fourj.productservice.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fourj.productservice.dto.BulkUpsertResultDto;
+import com.fourj.productservice.dto.ProductAttributeDto;
+import com.fourj.productservice.dto.ProductBulkRowDto;
+import com.fourj.productservice.dto.ProductDto;
+import com.fourj.productservice.event.ProductEventPublisher;
+import com.fourj.productservice.model.Category;
+import com.fourj.productservice.repository.CategoryRepository;
+import com.fourj.productservice.service.ProductBulkService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk upsert sản phẩm theo (sellerId, sku).
+ * File được đọc theo luồng và ghi theo từng chunk, mỗi chunk là một transaction
+ * dùng JDBC batch thay vì lưu từng entity qua JPA.
+ */
+@Service
+@Slf4j
+public class ProductBulkServiceImpl implements ProductBulkService {
+
+    private static final String UPSERT_PRODUCT_SQL =
+            "INSERT INTO products (id, sku, seller_id, name, description, price, stock_quantity, image_url, "
+                    + "category_id, active, created_at, updated_at) "
+                    + "VALUES (nextval('products_seq'), :sku, :sellerId, :name, :description, :price, :stockQuantity, :imageUrl, "
+                    + ":categoryId, true, :now, :now) "
+                    + "ON CONFLICT (seller_id, sku) DO UPDATE SET "
+                    + "name = EXCLUDED.name, description = EXCLUDED.description, price = EXCLUDED.price, "
+                    + "stock_quantity = EXCLUDED.stock_quantity, image_url = EXCLUDED.image_url, "
+                    + "category_id = EXCLUDED.category_id, active = true, updated_at = EXCLUDED.updated_at";
+
+    private static final String SELECT_UPSERTED_SQL =
+            "SELECT id, sku, created_at FROM products WHERE seller_id = :sellerId AND sku IN (:skus)";
+
+    private static final String DELETE_ATTRIBUTES_SQL =
+            "DELETE FROM product_attributes WHERE product_id IN (:productIds)";
+
+    private static final String INSERT_ATTRIBUTE_SQL =
+            "INSERT INTO product_attributes (id, product_id, name, value) "
+                    + "VALUES (nextval('product_attributes_seq'), :productId, :name, :value)";
+
+    private static final String SELECT_ATTRIBUTES_SQL =
+            "SELECT id, product_id, name, value FROM product_attributes WHERE product_id IN (:productIds)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final CategoryRepository categoryRepository;
+    private final ProductEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.bulk.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${app.bulk.max-errors:100}")
+    private int maxErrors;
+
+    @Autowired
+    public ProductBulkServiceImpl(NamedParameterJdbcTemplate jdbcTemplate,
+                                  TransactionTemplate transactionTemplate,
+                                  CategoryRepository categoryRepository,
+                                  ProductEventPublisher eventPublisher,
+                                  ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.categoryRepository = categoryRepository;
+        this.eventPublisher = eventPublisher;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public BulkUpsertResultDto bulkUpsert(String sellerId, MediaType contentType, InputStream content) throws IOException {
+        long startTime = System.currentTimeMillis();
+        Map<Long, String> categoryNames = categoryRepository.findAll().stream()
+                .collect(Collectors.toMap(Category::getId, Category::getName));
+
+        // Key là sku: dòng trùng sku trong cùng chunk thì dòng sau ghi đè dòng trước
+        Map<String, ProductBulkRowDto> chunk = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+        long totalRows = 0;
+        long upserted = 0;
+        long failed = 0;
+        int chunks = 0;
+
+        try (ProductBulkRowReader reader = new ProductBulkRowReader(contentType, content, objectMapper)) {
+            String line;
+            while ((line = reader.nextLine()) != null) {
+                totalRows++;
+                try {
+                    ProductBulkRowDto row = reader.parse(line);
+                    validateRow(row, categoryNames);
+                    chunk.put(row.getSku(), row);
+                } catch (IllegalArgumentException e) {
+                    failed++;
+                    addError(errors, "Dòng " + reader.getLineNumber() + ": " + e.getMessage());
+                    continue;
+                }
+
+                if (chunk.size() >= chunkSize) {
+                    chunks++;
+                    long written = writeChunk(sellerId, chunk, categoryNames, chunks, errors);
+                    upserted += written;
+                    failed += chunk.size() - written;
+                    chunk.clear();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Lỗi ở mức file (định dạng, header CSV), không đọc tiếp được
+            addError(errors, e.getMessage());
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks++;
+            long written = writeChunk(sellerId, chunk, categoryNames, chunks, errors);
+            upserted += written;
+            failed += chunk.size() - written;
+        }
+
+        long durationMs = System.currentTimeMillis() - startTime;
+        log.info("Bulk upsert cho seller {}: {} dòng, {} sản phẩm đã ghi, {} lỗi, {} chunk trong {} ms",
+                sellerId, totalRows, upserted, failed, chunks, durationMs);
+
+        return BulkUpsertResultDto.builder()
+                .totalRows(totalRows)
+                .upserted(upserted)
+                .failed(failed)
+                .chunks(chunks)
+                .durationMs(durationMs)
+                .errors(errors)
+                .build();
+    }
+
+    /**
+     * Ghi một chunk trong một transaction: upsert sản phẩm, thay thuộc tính và ghi một sự kiện
+     * PRODUCT_BULK_UPDATED vào outbox. Lỗi database chỉ làm hỏng chunk hiện tại.
+     *
+     * @return số sản phẩm đã ghi
+     */
+    private long writeChunk(String sellerId, Map<String, ProductBulkRowDto> chunk,
+                            Map<Long, String> categoryNames, int chunkNumber, List<String> errors) {
+        List<ProductBulkRowDto> rows = new ArrayList<>(chunk.values());
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                LocalDateTime now = LocalDateTime.now();
+                upsertProducts(sellerId, rows, now);
+
+                Map<String, Object[]> keys = findUpsertedKeys(sellerId, chunk.keySet());
+                Map<Long, List<ProductAttributeDto>> attributes = replaceAttributes(rows, keys);
+
+                List<ProductDto> productDtos = rows.stream()
+                        .map(row -> toDto(sellerId, row, keys.get(row.getSku()), now, categoryNames, attributes))
+                        .collect(Collectors.toList());
+                eventPublisher.publishProductsBulkUpdated(productDtos);
+            });
+            return rows.size();
+        } catch (DataAccessException e) {
+            log.error("Lỗi khi ghi chunk {} của seller {}: {}", chunkNumber, sellerId, e.getMessage());
+            addError(errors, "Chunk " + chunkNumber + " (" + rows.size() + " sản phẩm): "
+                    + e.getMostSpecificCause().getMessage());
+            return 0;
+        }
+    }
+
+    private void upsertProducts(String sellerId, List<ProductBulkRowDto> rows, LocalDateTime now) {
+        Timestamp timestamp = Timestamp.valueOf(now);
+        SqlParameterSource[] batch = rows.stream()
+                .map(row -> new MapSqlParameterSource()
+                        .addValue("sku", row.getSku())
+                        .addValue("sellerId", sellerId)
+                        .addValue("name", row.getName())
+                        .addValue("description", row.getDescription())
+                        .addValue("price", row.getPrice())
+                        .addValue("stockQuantity", row.getStockQuantity())
+                        .addValue("imageUrl", row.getImageUrl())
+                        .addValue("categoryId", row.getCategoryId())
+                        .addValue("now", timestamp))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(UPSERT_PRODUCT_SQL, batch);
+    }
+
+    /**
+     * Lấy lại id và created_at của các sản phẩm vừa upsert, key là sku
+     */
+    private Map<String, Object[]> findUpsertedKeys(String sellerId, Iterable<String> skus) {
+        Map<String, Object[]> keys = new HashMap<>();
+        jdbcTemplate.query(SELECT_UPSERTED_SQL,
+                new MapSqlParameterSource("sellerId", sellerId).addValue("skus", skus),
+                rs -> {
+                    keys.put(rs.getString("sku"), new Object[]{
+                            rs.getLong("id"), rs.getTimestamp("created_at").toLocalDateTime()});
+                });
+        return keys;
+    }
+
+    /**
+     * Thay toàn bộ thuộc tính của các dòng có cột attributes, các sản phẩm còn lại giữ nguyên thuộc tính cũ.
+     *
+     * @return thuộc tính hiện tại của mọi sản phẩm trong chunk, key là productId
+     */
+    private Map<Long, List<ProductAttributeDto>> replaceAttributes(List<ProductBulkRowDto> rows,
+                                                                   Map<String, Object[]> keys) {
+        Map<Long, List<ProductAttributeDto>> attributes = new HashMap<>();
+        List<Long> replacedIds = new ArrayList<>();
+        List<Long> keptIds = new ArrayList<>();
+        List<SqlParameterSource> inserts = new ArrayList<>();
+
+        for (ProductBulkRowDto row : rows) {
+            Long productId = (Long) keys.get(row.getSku())[0];
+            if (row.getAttributes() == null) {
+                keptIds.add(productId);
+                continue;
+            }
+            replacedIds.add(productId);
+            attributes.put(productId, row.getAttributes());
+            for (ProductAttributeDto attribute : row.getAttributes()) {
+                inserts.add(new MapSqlParameterSource()
+                        .addValue("productId", productId)
+                        .addValue("name", attribute.getName())
+                        .addValue("value", attribute.getValue()));
+            }
+        }
+
+        if (!replacedIds.isEmpty()) {
+            jdbcTemplate.update(DELETE_ATTRIBUTES_SQL, new MapSqlParameterSource("productIds", replacedIds));
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_ATTRIBUTE_SQL, inserts.toArray(new SqlParameterSource[0]));
+        }
+
+        // Sự kiện mang trạng thái đầy đủ nên cần đọc lại thuộc tính của sản phẩm không bị thay
+        if (!keptIds.isEmpty()) {
+            jdbcTemplate.query(SELECT_ATTRIBUTES_SQL, new MapSqlParameterSource("productIds", keptIds), rs -> {
+                attributes.computeIfAbsent(rs.getLong("product_id"), id -> new ArrayList<>())
+                        .add(new ProductAttributeDto(rs.getLong("id"), rs.getString("name"), rs.getString("value")));
+            });
+        }
+        return attributes;
+    }
+
+    private ProductDto toDto(String sellerId, ProductBulkRowDto row, Object[] key, LocalDateTime now,
+                             Map<Long, String> categoryNames, Map<Long, List<ProductAttributeDto>> attributes) {
+        Long productId = (Long) key[0];
+        List<ProductAttributeDto> productAttributes = attributes.get(productId);
+        return ProductDto.builder()
+                .id(productId)
+                .sku(row.getSku())
+                .name(row.getName())
+                .description(row.getDescription())
+                .price(row.getPrice())
+                .stockQuantity(row.getStockQuantity())
+                .imageUrl(row.getImageUrl())
+                .categoryId(row.getCategoryId())
+                .categoryName(categoryNames.get(row.getCategoryId()))
+                .active(true)
+                .sellerId(sellerId)
+                .attributes(productAttributes != null && !productAttributes.isEmpty() ? productAttributes : null)
+                .createdAt((LocalDateTime) key[1])
+                .updatedAt(now)
+                .build();
+    }
+
+    /**
+     * Kiểm tra tương đương với các ràng buộc của ProductCreateDto
+     */
+    private void validateRow(ProductBulkRowDto row, Map<Long, String> categoryNames) {
+        if (row.getSku() == null || row.getSku().isBlank()) {
+            throw new IllegalArgumentException("SKU không được để trống");
+        }
+        if (row.getSku().length() > 100) {
+            throw new IllegalArgumentException("SKU không được dài quá 100 ký tự");
+        }
+        if (row.getName() == null || row.getName().isBlank()) {
+            throw new IllegalArgumentException("Tên sản phẩm không được để trống");
+        }
+        if (row.getDescription() != null && row.getDescription().length() > 1000) {
+            throw new IllegalArgumentException("Mô tả không được dài quá 1000 ký tự");
+        }
+        if (row.getPrice() == null || row.getPrice().compareTo(BigDecimal.ZERO) <= 0) {
+            throw new IllegalArgumentException("Giá sản phẩm phải lớn hơn 0");
+        }
+        if (row.getStockQuantity() == null || row.getStockQuantity() < 0) {
+            throw new IllegalArgumentException("Số lượng tồn kho không được âm");
+        }
+        if (row.getCategoryId() == null || !categoryNames.containsKey(row.getCategoryId())) {
+            throw new IllegalArgumentException("Danh mục không tồn tại với id: " + row.getCategoryId());
+        }
+        if (row.getAttributes() != null) {
+            for (ProductAttributeDto attribute : row.getAttributes()) {
+                if (attribute.getName() == null || attribute.getName().isBlank()
+                        || attribute.getValue() == null || attribute.getValue().isBlank()) {
+                    throw new IllegalArgumentException("Tên và giá trị thuộc tính không được để trống");
+                }
+            }
+        }
+    }
+
+    private void addError(List<String> errors, String error) {
+        if (errors.size() < maxErrors) {
+            errors.add(error);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.fourj.productservice.service.impl;
 
+import com.fourj.productservice.config.ProductSearchSchemaInitializer;
 import com.fourj.productservice.dto.ProductAttributeDto;
 import com.fourj.productservice.dto.ProductCreateDto;
 import com.fourj.productservice.dto.ProductDto;
@@ -16,15 +17,19 @@ import com.fourj.productservice.repository.ProductRepository;
 import com.fourj.productservice.service.ProductService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @Service
@@ -35,16 +40,19 @@ public class ProductServiceImpl implements ProductService {
     private final CategoryRepository categoryRepository;
     private final ProductAttributeRepository attributeRepository;
     private final ProductEventPublisher eventPublisher;
+    private final ProductSearchSchemaInitializer searchSchemaInitializer;
 
     @Autowired
     public ProductServiceImpl(ProductRepository productRepository,
                               CategoryRepository categoryRepository,
                               ProductAttributeRepository attributeRepository,
-                              ProductEventPublisher eventPublisher) {
+                              ProductEventPublisher eventPublisher,
+                              ProductSearchSchemaInitializer searchSchemaInitializer) {
         this.productRepository = productRepository;
         this.categoryRepository = categoryRepository;
         this.attributeRepository = attributeRepository;
         this.eventPublisher = eventPublisher;
+        this.searchSchemaInitializer = searchSchemaInitializer;
     }
 
     @Override
@@ -54,6 +62,7 @@ public class ProductServiceImpl implements ProductService {
                 .orElseThrow(() -> new ResourceNotFoundException("Danh mục không tồn tại với id: " + productCreateDto.getCategoryId()));
 
         Product product = new Product();
+        product.setSku(productCreateDto.getSku());
         product.setName(productCreateDto.getName());
         product.setDescription(productCreateDto.getDescription());
         product.setPrice(productCreateDto.getPrice());
@@ -82,14 +91,8 @@ public class ProductServiceImpl implements ProductService {
 
         ProductDto productDto = mapToDto(productRepository.findById(savedProduct.getId()).orElseThrow());
         
-        // Phát sự kiện sản phẩm được tạo
-        try {
-            eventPublisher.publishProductCreated(productDto);
-            log.info("Published product created event for product ID: {}", productDto.getId());
-        } catch (Exception e) {
-            log.error("Failed to publish product created event for ID: {}", productDto.getId(), e);
-            // Không ảnh hưởng đến transaction chính
-        }
+        // Ghi sự kiện sản phẩm được tạo vào outbox (cùng transaction)
+        eventPublisher.publishProductCreated(productDto);
         
         return productDto;
     }
@@ -118,6 +121,11 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public Page<ProductDto> searchProducts(String keyword, Pageable pageable) {
+        // Dùng full-text index nếu đã khởi tạo, nếu không quay về LIKE
+        if (searchSchemaInitializer.isReady()) {
+            return productRepository.fullTextSearch(keyword, null, pageable)
+                    .map(this::mapToDto);
+        }
         return productRepository.findByNameContainingIgnoreCaseAndActiveTrue(keyword, pageable)
                 .map(this::mapToDto);
     }
@@ -128,6 +136,9 @@ public class ProductServiceImpl implements ProductService {
         Product product = productRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Sản phẩm không tồn tại với id: " + id));
 
+        if (productUpdateDto.getSku() != null) {
+            product.setSku(productUpdateDto.getSku());
+        }
         if (productUpdateDto.getName() != null) {
             product.setName(productUpdateDto.getName());
         }
@@ -152,52 +163,87 @@ public class ProductServiceImpl implements ProductService {
             product.setActive(productUpdateDto.getActive());
         }
 
-        // Lưu sản phẩm trước khi xử lý thuộc tính để tránh ConcurrentModificationException
-        Product updatedProduct = productRepository.save(product);
-
-        // Cập nhật thuộc tính nếu được cung cấp
+        // Cập nhật thuộc tính nếu được cung cấp, chỉ ghi những thuộc tính thực sự thay đổi
         if (productUpdateDto.getAttributes() != null) {
-            // Lấy danh sách thuộc tính cũ để xóa sau
-            List<ProductAttribute> oldAttributes = attributeRepository.findByProductId(product.getId());
-            
-            // Xóa tất cả các thuộc tính cũ khỏi product.attributes 
-            // để tránh ConcurrentModificationException
-            product.setAttributes(new HashSet<>());
-            
-            // Lưu product với danh sách thuộc tính trống
-            productRepository.save(product);
-            
-            // Xóa các thuộc tính cũ trong database
-            attributeRepository.deleteAll(oldAttributes);
-            
-            // Tạo và lưu các thuộc tính mới
-            Set<ProductAttribute> newAttributes = new HashSet<>();
-            for (ProductAttributeDto attributeDto : productUpdateDto.getAttributes()) {
-                ProductAttribute attribute = new ProductAttribute();
-                attribute.setProduct(product);
-                attribute.setName(attributeDto.getName());
-                attribute.setValue(attributeDto.getValue());
-                newAttributes.add(attributeRepository.save(attribute));
-            }
-            
-            // Gán lại danh sách thuộc tính mới
-            product.setAttributes(newAttributes);
-            updatedProduct = productRepository.save(product);
+            applyAttributeChanges(product, productUpdateDto.getAttributes());
         }
 
+        Product updatedProduct = productRepository.save(product);
+
         ProductDto productDto = mapToDto(updatedProduct);
         
-        // Phát sự kiện sản phẩm được cập nhật
-        try {
-            eventPublisher.publishProductUpdated(productDto);
-            log.info("Published product updated event for product ID: {}", productDto.getId());
-        } catch (Exception e) {
-            log.error("Failed to publish product updated event for ID: {}", productDto.getId(), e);
-        }
+        // Ghi sự kiện sản phẩm được cập nhật vào outbox (cùng transaction)
+        eventPublisher.publishProductUpdated(productDto);
         
         return productDto;
     }
 
+    /**
+     * So sánh thuộc tính mới với thuộc tính hiện tại của sản phẩm:
+     * giữ nguyên thuộc tính không đổi, sửa giá trị thuộc tính bị thay đổi,
+     * thêm thuộc tính mới bằng một lần saveAll và xóa thuộc tính thừa bằng một câu DELETE.
+     * Thuộc tính được ghép theo id (nếu có), sau đó theo cặp tên/giá trị, cuối cùng theo tên.
+     */
+    private void applyAttributeChanges(Product product, List<ProductAttributeDto> attributeDtos) {
+        List<ProductAttribute> remaining = new ArrayList<>(product.getAttributes());
+        List<ProductAttributeDto> unmatched = new ArrayList<>();
+
+        for (ProductAttributeDto dto : attributeDtos) {
+            ProductAttribute existing = dto.getId() != null
+                    ? takeMatch(remaining, attr -> dto.getId().equals(attr.getId()))
+                    : takeMatch(remaining, attr -> attr.getName().equals(dto.getName())
+                            && attr.getValue().equals(dto.getValue()));
+            if (existing != null) {
+                updateAttribute(existing, dto);
+            } else {
+                unmatched.add(dto);
+            }
+        }
+
+        List<ProductAttribute> added = new ArrayList<>();
+        for (ProductAttributeDto dto : unmatched) {
+            ProductAttribute existing = takeMatch(remaining, attr -> attr.getName().equals(dto.getName()));
+            if (existing != null) {
+                updateAttribute(existing, dto);
+                continue;
+            }
+            ProductAttribute attribute = new ProductAttribute();
+            attribute.setProduct(product);
+            attribute.setName(dto.getName());
+            attribute.setValue(dto.getValue());
+            added.add(attribute);
+        }
+
+        if (!remaining.isEmpty()) {
+            remaining.forEach(product.getAttributes()::remove);
+            attributeRepository.deleteAllInBatch(remaining);
+        }
+        if (!added.isEmpty()) {
+            // Lưu trước khi thêm vào Set vì equals/hashCode dựa trên id
+            product.getAttributes().addAll(attributeRepository.saveAll(added));
+        }
+        log.debug("Cập nhật thuộc tính sản phẩm {}: thêm {}, xóa {}", product.getId(), added.size(), remaining.size());
+    }
+
+    private ProductAttribute takeMatch(List<ProductAttribute> candidates, Predicate<ProductAttribute> matcher) {
+        for (Iterator<ProductAttribute> it = candidates.iterator(); it.hasNext(); ) {
+            ProductAttribute candidate = it.next();
+            if (matcher.test(candidate)) {
+                it.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hibernate dirty checking chỉ sinh câu UPDATE khi tên hoặc giá trị thực sự thay đổi
+     */
+    private void updateAttribute(ProductAttribute attribute, ProductAttributeDto dto) {
+        attribute.setName(dto.getName());
+        attribute.setValue(dto.getValue());
+    }
+
     @Override
     @Transactional
     public void deleteProduct(Long id) {
@@ -210,16 +256,49 @@ public class ProductServiceImpl implements ProductService {
             ProductDto productDto = getProductById(id);
             productRepository.deleteById(id);
             eventPublisher.publishProductDeleted(productDto);
-            log.info("Published product deleted event for product ID: {}", id);
+            log.info("Queued product deleted event for product ID: {}", id);
         } catch (Exception e) {
             log.error("Error processing product deletion for ID: {}", id, e);
             throw e;
         }
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public List<ProductDto> exportProducts(Long afterId, Long toId, int limit) {
+        List<Product> products = productRepository.findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(
+                afterId, toId, Limit.of(limit));
+        if (products.isEmpty()) {
+            return List.of();
+        }
+
+        // Nạp attributes của cả trang bằng một truy vấn thay vì lazy-load từng sản phẩm
+        Map<Long, List<ProductAttribute>> attributesByProduct = attributeRepository
+                .findByProductIdIn(products.stream().map(Product::getId).toList())
+                .stream()
+                .collect(Collectors.groupingBy(attr -> attr.getProduct().getId()));
+
+        return products.stream()
+                .map(product -> mapToDto(product, attributesByProduct.getOrDefault(product.getId(), List.of())))
+                .toList();
+    }
+
+    @Override
+    public Map<String, Long> getExportBounds() {
+        Map<String, Long> bounds = new HashMap<>();
+        bounds.put("minId", productRepository.findMinId());
+        bounds.put("maxId", productRepository.findMaxId());
+        return bounds;
+    }
+
     private ProductDto mapToDto(Product product) {
+        return mapToDto(product, product.getAttributes());
+    }
+
+    private ProductDto mapToDto(Product product, Collection<ProductAttribute> attributes) {
         ProductDto.ProductDtoBuilder builder = ProductDto.builder()
                 .id(product.getId())
+                .sku(product.getSku())
                 .name(product.getName())
                 .description(product.getDescription())
                 .price(product.getPrice())
@@ -239,7 +318,6 @@ public class ProductServiceImpl implements ProductService {
         ProductDto dto = builder.build();
 
         // Xử lý attributes nếu có
-        Set<ProductAttribute> attributes = product.getAttributes();
         if (attributes != null && !attributes.isEmpty()) {
             // Sử dụng new ArrayList để tránh ConcurrentModificationException
             dto.setAttributes(new ArrayList<>(attributes).stream()
@@ -260,6 +338,10 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public Page<ProductDto> searchProductsBySeller(String sellerId, String keyword, Pageable pageable) {
+        if (searchSchemaInitializer.isReady()) {
+            return productRepository.fullTextSearch(keyword, sellerId, pageable)
+                    .map(this::mapToDto);
+        }
         return productRepository.findBySellerIdAndNameContainingIgnoreCaseAndActiveTrue(sellerId, keyword, pageable)
                 .map(this::mapToDto);
     }
@@ -300,38 +382,30 @@ public class ProductServiceImpl implements ProductService {
     @Override
     @Transactional
     public boolean updateStockQuantity(Long productId, int quantity) {
-        try {
-            Product product = productRepository.findById(productId)
-                    .orElseThrow(() -> new ResourceNotFoundException("Sản phẩm không tồn tại với id: " + productId));
-            
-            int currentStock = product.getStockQuantity();
-            
-            if (currentStock < quantity) {
-                log.error("Không đủ số lượng sản phẩm {} trong kho. Yêu cầu: {}, Hiện có: {}", 
-                          productId, quantity, currentStock);
-                return false;
-            }
-            
-            product.setStockQuantity(currentStock - quantity);
-            productRepository.save(product);
-            
-            // Phát sự kiện sản phẩm được cập nhật
-            try {
-                ProductDto productDto = mapToDto(product);
-                eventPublisher.publishProductUpdated(productDto);
-                log.info("Đã cập nhật số lượng tồn kho của sản phẩm ID: {}, giảm: {}, còn lại: {}", 
-                         productId, quantity, product.getStockQuantity());
-            } catch (Exception e) {
-                log.error("Không thể phát sự kiện cập nhật sản phẩm cho ID: {}", productId, e);
-            }
-            
-            return true;
-        } catch (ResourceNotFoundException e) {
-            log.error("Không tìm thấy sản phẩm khi cập nhật số lượng tồn kho: {}", e.getMessage());
+        // Không bắt exception ở đây: lỗi khi ghi outbox đã đánh dấu transaction rollback-only,
+        // trả về false sẽ khiến commit ném UnexpectedRollbackException thay vì lỗi gốc
+        Product product = productRepository.findById(productId).orElse(null);
+        if (product == null) {
+            log.error("Không tìm thấy sản phẩm khi cập nhật số lượng tồn kho: Sản phẩm không tồn tại với id: {}", productId);
             return false;
-        } catch (Exception e) {
-            log.error("Lỗi khi cập nhật số lượng tồn kho cho sản phẩm {}: {}", productId, e.getMessage());
+        }
+        
+        int currentStock = product.getStockQuantity();
+        
+        if (currentStock < quantity) {
+            log.error("Không đủ số lượng sản phẩm {} trong kho. Yêu cầu: {}, Hiện có: {}", 
+                      productId, quantity, currentStock);
             return false;
         }
+        
+        product.setStockQuantity(currentStock - quantity);
+        productRepository.save(product);
+        
+        // Ghi sự kiện vào outbox, relay sẽ gộp các lần giảm tồn kho liên tiếp thành một sự kiện
+        eventPublisher.publishProductUpdated(mapToDto(product));
+        log.info("Đã cập nhật số lượng tồn kho của sản phẩm ID: {}, giảm: {}, còn lại: {}", 
+                 productId, quantity, product.getStockQuantity());
+        
+        return true;
     }
 }
\ No newline at end of file
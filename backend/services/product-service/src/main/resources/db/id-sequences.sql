@@ -0,0 +1,18 @@
+-- Chuyển cột id từ IDENTITY sang sequence pooled (allocationSize = 50) để Hibernate gom INSERT thành batch.
+-- Chạy trước khi Hibernate cập nhật schema; chỉ xử lý những bảng chưa có sequence nên chạy lại nhiều lần vẫn an toàn.
+-- Sequence được đặt lớn hơn id hiện tại ít nhất 50 để block id đầu tiên không trùng dữ liệu cũ.
+DO $$
+DECLARE
+    tbl text;
+BEGIN
+    FOREACH tbl IN ARRAY ARRAY['products', 'product_attributes'] LOOP
+        IF to_regclass(tbl || '_seq') IS NULL THEN
+            EXECUTE format('CREATE SEQUENCE %I INCREMENT BY 50', tbl || '_seq');
+            IF to_regclass(tbl) IS NOT NULL THEN
+                EXECUTE format('ALTER TABLE %I ALTER COLUMN id DROP IDENTITY IF EXISTS', tbl);
+                EXECUTE format('ALTER TABLE %I ALTER COLUMN id DROP DEFAULT', tbl);
+                EXECUTE format('SELECT setval(%L, (SELECT COALESCE(MAX(id), 0) FROM %I) + 50)', tbl || '_seq', tbl);
+            END IF;
+        END IF;
+    END LOOP;
+END $$;
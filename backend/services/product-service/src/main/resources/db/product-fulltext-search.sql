@@ -0,0 +1,22 @@
+-- Full-text search cho bảng products (PostgreSQL 12+)
+-- Script idempotent, được chạy bởi ProductSearchSchemaInitializer sau khi Hibernate cập nhật schema
+
+CREATE EXTENSION IF NOT EXISTS unaccent;
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- unaccent() không phải IMMUTABLE nên không dùng trực tiếp được trong generated column / index
+CREATE OR REPLACE FUNCTION f_unaccent(text) RETURNS text
+    LANGUAGE sql IMMUTABLE PARALLEL SAFE STRICT
+    AS 'SELECT public.unaccent(''public.unaccent'', $1)';
+
+-- Cấu hình 'simple' (không stemming) phù hợp với tiếng Việt, dấu được bỏ bởi f_unaccent
+ALTER TABLE products ADD COLUMN IF NOT EXISTS search_vector tsvector
+    GENERATED ALWAYS AS (
+        setweight(to_tsvector('simple', f_unaccent(lower(coalesce(name, '')))), 'A') ||
+        setweight(to_tsvector('simple', f_unaccent(lower(coalesce(description, '')))), 'B')
+    ) STORED;
+
+CREATE INDEX IF NOT EXISTS idx_products_search_vector ON products USING GIN (search_vector);
+
+-- Trigram index cho tìm kiếm một phần từ (LIKE '%...%')
+CREATE INDEX IF NOT EXISTS idx_products_name_trgm ON products USING GIN (f_unaccent(lower(name)) gin_trgm_ops);
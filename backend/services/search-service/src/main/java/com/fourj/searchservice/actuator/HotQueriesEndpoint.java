@@ -0,0 +1,25 @@
+package com.fourj.searchservice.actuator;
+
+import com.fourj.searchservice.service.HotQueryTracker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * /actuator/hotqueries: top-K truy vấn phổ biến hiện tại kèm tần suất ước lượng
+ */
+@Component
+@Endpoint(id = "hotqueries")
+@RequiredArgsConstructor
+public class HotQueriesEndpoint {
+
+    private final HotQueryTracker hotQueryTracker;
+
+    @ReadOperation
+    public List<HotQueryTracker.HotQuery> hotQueries() {
+        return hotQueryTracker.topQueries();
+    }
+}
@@ -1,10 +1,12 @@
 package com.fourj.searchservice.config;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.json.JsonpMapper;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.ElasticsearchTransport;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -15,6 +17,7 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.ssl.SSLContexts;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
@@ -42,26 +45,74 @@ public class ElasticsearchConfig {
     private int connectTimeout;
     private int socketTimeout;
     private IndexSettings indexSettings;
+    private BulkSettings bulk = new BulkSettings();
+    private ConnectionPoolSettings pool = new ConnectionPoolSettings();
+    // Thời gian giữ point-in-time giữa hai lần lấy trang của API cursor
+    private String cursorKeepAlive = "1m";
+    // Số hit tối đa được đếm chính xác khi sắp xếp theo trường, cho phép shard dừng sớm
+    private int sortedTotalHitsCap = 1000;
+    private HighlightSettings highlight = new HighlightSettings();
 
     @Data
     public static class IndexSettings {
         private ProductIndexSettings products;
+        // Index route theo sellerId cho tìm kiếm của người bán, bỏ trống để tắt
+        private ProductIndexSettings sellerProducts;
     }
 
     @Data
     public static class ProductIndexSettings {
+        // Tiền tố của các index có phiên bản (products_v1, products_v2, ...)
         private String name;
-        private String[] aliases;
+        // Alias mà mọi thao tác đọc/ghi sử dụng, được chuyển sang index mới sau mỗi lần reindex
+        private String alias;
         private int shards;
         private int replicas;
         private String refreshInterval;
     }
 
+    /**
+     * Giới hạn đoạn trích highlight: name luôn trả nguyên trường, description cắt thành các đoạn ngắn
+     */
+    @Data
+    public static class HighlightSettings {
+        private int fragmentSize = 150;
+        private int numberOfFragments = 1;
+    }
+
+    /**
+     * Giới hạn của bulk ingester: request được gửi khi đạt số operation, kích thước hoặc hết thời gian chờ
+     */
+    @Data
+    public static class BulkSettings {
+        private int maxOperations = 1000;
+        private long maxSizeBytes = 5 * 1024 * 1024;
+        private long flushIntervalMs = 200;
+        private int maxConcurrentRequests = 4;
+        private long ackTimeoutMs = 60000;
+    }
+
+    /**
+     * Connection pool của HTTP client dùng chung cho client đồng bộ và bất đồng bộ.
+     * Mặc định của Apache HttpAsyncClient chỉ cho 30 kết nối tổng và 10 kết nối tới mỗi node.
+     */
+    @Data
+    public static class ConnectionPoolSettings {
+        private int maxConnTotal = 100;
+        private int maxConnPerRoute = 50;
+        // 0: dùng số CPU như mặc định của HttpAsyncClient
+        private int ioThreads = 0;
+        // Nén gzip request và nhận response nén, giảm băng thông cho kết quả có nhiều document
+        private boolean compression = true;
+    }
+
     @Bean
     public JsonpMapper jsonpMapper() {
         ObjectMapper om = new ObjectMapper();
         om.registerModule(new JavaTimeModule());
         om.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        // Không gửi trường null, Elasticsearch từ chối completion có weight/contexts null
+        om.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         
         // Cấu hình để bỏ qua các trường không xác định
         om.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
@@ -80,13 +131,29 @@ public class ElasticsearchConfig {
                     .setConnectTimeout(connectTimeout)
                     .setSocketTimeout(socketTimeout));
 
-            // Configure authentication if credentials are provided
+            builder.setCompressionEnabled(pool.isCompression());
+
+            final CredentialsProvider credentialsProvider;
             if (StringUtils.hasText(username) && StringUtils.hasText(password)) {
-                final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                credentialsProvider = new BasicCredentialsProvider();
                 credentialsProvider.setCredentials(AuthScope.ANY,
                         new UsernamePasswordCredentials(username, password));
+            } else {
+                credentialsProvider = null;
+            }
+
+            builder.setHttpClientConfigCallback(httpClientBuilder -> {
+                httpClientBuilder
+                        .setMaxConnTotal(pool.getMaxConnTotal())
+                        .setMaxConnPerRoute(pool.getMaxConnPerRoute());
+                if (pool.getIoThreads() > 0) {
+                    httpClientBuilder.setDefaultIOReactorConfig(IOReactorConfig.custom()
+                            .setIoThreadCount(pool.getIoThreads())
+                            .build());
+                }
 
-                builder.setHttpClientConfigCallback(httpClientBuilder -> {
+                // Configure authentication if credentials are provided
+                if (credentialsProvider != null) {
                     httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
 
                     // Configure SSL if enabled
@@ -100,10 +167,10 @@ public class ElasticsearchConfig {
                             log.error("Error configuring SSL Context", e);
                         }
                     }
+                }
 
-                    return httpClientBuilder;
-                });
-            }
+                return httpClientBuilder;
+            });
 
             return builder.build();
         } catch (Exception e) {
@@ -113,11 +180,14 @@ public class ElasticsearchConfig {
     }
 
     @Bean
-    public ElasticsearchClient elasticsearchClient(RestClient restClient, JsonpMapper jsonpMapper) {
+    public ElasticsearchTransport elasticsearchTransport(RestClient restClient, JsonpMapper jsonpMapper) {
+        // Tạo transport sử dụng RestClient và mapper đã cấu hình
+        return new RestClientTransport(restClient, jsonpMapper);
+    }
+
+    @Bean
+    public ElasticsearchClient elasticsearchClient(ElasticsearchTransport transport) {
         try {
-            // Tạo transport sử dụng RestClient và mapper đã cấu hình
-            ElasticsearchTransport transport = new RestClientTransport(restClient, jsonpMapper);
-            
             // Tạo client sử dụng transport
             return new ElasticsearchClient(transport);
         } catch (Exception e) {
@@ -125,4 +195,12 @@ public class ElasticsearchConfig {
             throw new RuntimeException("Failed to create ElasticsearchClient", e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Client bất đồng bộ trên cùng transport, không giữ thread servlet trong lúc chờ Elasticsearch
+     */
+    @Bean
+    public ElasticsearchAsyncClient elasticsearchAsyncClient(ElasticsearchTransport transport) {
+        return new ElasticsearchAsyncClient(transport);
+    }
+}
@@ -1,17 +1,23 @@
 package com.fourj.searchservice.config;
 
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import com.fourj.searchservice.service.SearchResultCache;
 
 import java.time.Duration;
 
@@ -19,10 +25,17 @@ import java.time.Duration;
 @EnableCaching
 @ConfigurationProperties(prefix = "cache")
 @Data
+@Slf4j
 public class RedisConfig {
 
     private int hotKeysTtl;
     private int searchResultsTtl;
+    private int searchResultsLocalTtl = 30;
+    private int searchResultsLocalMaxSize = 10000;
+    private int hotQueryTopK = 50;
+    private int hotQueryMinCount = 5;
+    private int hotQueryRefreshAhead = 60;
+    private int hotQueryDecayInterval = 300;
 
     @Bean
     public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
@@ -55,4 +68,32 @@ public class RedisConfig {
 
         return builder.build();
     }
-}
\ No newline at end of file
+
+    /**
+     * Nhận thông báo invalidate cache kết quả tìm kiếm từ các instance khác.
+     * Container được khởi động sau khi ứng dụng sẵn sàng để service vẫn chạy được khi Redis chưa lên.
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       SearchResultCache searchResultCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer() {
+            @Override
+            public boolean isAutoStartup() {
+                return false;
+            }
+        };
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(searchResultCache, new ChannelTopic(SearchResultCache.INVALIDATION_CHANNEL));
+        return container;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startSearchCacheInvalidationListener(ApplicationReadyEvent event) {
+        try {
+            event.getApplicationContext().getBean(RedisMessageListenerContainer.class).start();
+        } catch (Exception e) {
+            // Cache cục bộ vẫn tự hết hạn theo search-results-local-ttl
+            log.warn("Không thể đăng ký kênh invalidate cache tìm kiếm: {}", e.getMessage());
+        }
+    }
+}
@@ -4,21 +4,28 @@ import com.fourj.searchservice.document.ProductDocument;
 import com.fourj.searchservice.dto.SearchRequest;
 import com.fourj.searchservice.dto.SearchResponse;
 import com.fourj.searchservice.dto.ProductIndexDto;
+import com.fourj.searchservice.exception.SearchServiceException;
+import com.fourj.searchservice.service.ProductBackfillService;
 import com.fourj.searchservice.service.SearchService;
 import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @RestController
@@ -28,6 +35,12 @@ import java.util.stream.Collectors;
 public class SearchController {
 
     private final SearchService searchService;
+    private final ProductBackfillService productBackfillService;
+
+    private static final Set<String> FILTER_RESERVED_PARAMS = Set.of("keyword", "page", "size", "brand", "fields", "highlight");
+    private static final Set<String> FACET_RESERVED_PARAMS = Set.of("keyword", "categories", "brand", "minPrice", "maxPrice",
+            "page", "size", "fields", "highlight");
+    private static final int MAX_BATCH_SEARCHES = 20;
     
     /**
      * Tìm kiếm nâng cao với nhiều tùy chọn lọc và sắp xếp
@@ -62,6 +75,41 @@ public class SearchController {
         }
     }
     
+    /**
+     * Tìm kiếm phân trang theo cursor cho cuộn vô hạn và đọc toàn bộ kết quả.
+     * Trang sau gửi lại cùng request kèm cursor = nextCursor của trang trước.
+     */
+    @PostMapping("/products/cursor")
+    @Timed(value = "search.cursor", description = "Time taken to process cursor search requests")
+    public ResponseEntity<SearchResponse> searchProductsWithCursor(@RequestBody SearchRequest request) throws IOException {
+        if (request.getSize() <= 0 || request.getSize() > 100) {
+            request.setSize(20);
+        }
+        return ResponseEntity.ok(searchService.searchWithCursor(request));
+    }
+
+    /**
+     * Nhiều tìm kiếm trong một request (ví dụ các carousel của trang chủ), gửi tới Elasticsearch
+     * bằng một lần _msearch. Thread servlet được trả lại trong lúc chờ kết quả.
+     */
+    @PostMapping("/products/batch")
+    @Timed(value = "search.batch", description = "Time taken to process batch search requests")
+    public CompletableFuture<ResponseEntity<List<SearchResponse>>> batchSearch(@RequestBody List<SearchRequest> requests) {
+        if (requests.isEmpty() || requests.size() > MAX_BATCH_SEARCHES) {
+            throw new SearchServiceException("Số tìm kiếm trong một lô phải từ 1 đến " + MAX_BATCH_SEARCHES,
+                    "INVALID_BATCH_SIZE", 400);
+        }
+        for (SearchRequest request : requests) {
+            if (request.getFrom() < 0) {
+                request.setFrom(0);
+            }
+            if (request.getSize() <= 0 || request.getSize() > 100) {
+                request.setSize(20);
+            }
+        }
+        return searchService.multiSearch(requests).thenApply(ResponseEntity::ok);
+    }
+
     /**
      * API đơn giản hóa để tìm kiếm sản phẩm, tương thích với API mặc định của product-service
      */
@@ -73,8 +121,11 @@ public class SearchController {
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(required = false) List<String> categories,
             @RequestParam(required = false) String sortBy,
-            @RequestParam(defaultValue = "asc") String sortDir) {
+            @RequestParam(defaultValue = "asc") String sortDir,
+            @RequestParam(required = false) String fields,
+            @RequestParam(defaultValue = "false") boolean highlight) {
         
+        SearchRequest.FieldProfile fieldProfile = parseFieldProfile(fields);
         try {
             // Chuyển đổi tham số thành SearchRequest
             SearchRequest.SortOption sortOption = determineSortOption(sortBy, sortDir);
@@ -86,6 +137,8 @@ public class SearchController {
                     .categories(categories)
                     .sortOption(sortOption)
                     .includeAggregations(true)
+                    .fields(fieldProfile)
+                    .highlight(highlight)
                     .build();
             
             SearchResponse response = searchService.searchProducts(request);
@@ -105,8 +158,10 @@ public class SearchController {
             @RequestParam BigDecimal minPrice,
             @RequestParam BigDecimal maxPrice,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String fields) {
         
+        SearchRequest.FieldProfile fieldProfile = parseFieldProfile(fields);
         try {
             SearchRequest request = SearchRequest.builder()
                     .query(keyword)
@@ -118,6 +173,7 @@ public class SearchController {
                             .build())
                     .sortOption(SearchRequest.SortOption.PRICE_ASC)
                     .includeAggregations(true)
+                    .fields(fieldProfile)
                     .build();
             
             SearchResponse response = searchService.searchProducts(request);
@@ -129,7 +185,9 @@ public class SearchController {
     }
     
     /**
-     * Tìm kiếm sản phẩm theo danh mục
+     * Tìm kiếm sản phẩm theo danh mục.
+     * facets=false khi chỉ cần trang sản phẩm (ví dụ các trang sau trang đầu): không có aggregation
+     * thì truy vấn sắp xếp theo trường có thể dừng sớm, totalHits khi đó có thể là cận dưới.
      */
     @GetMapping("/products/category/{categoryId}")
     public ResponseEntity<SearchResponse> searchByCategory(
@@ -138,8 +196,11 @@ public class SearchController {
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(defaultValue = "price") String sortBy,
-            @RequestParam(defaultValue = "asc") String sortDir) {
+            @RequestParam(defaultValue = "asc") String sortDir,
+            @RequestParam(defaultValue = "true") boolean facets,
+            @RequestParam(required = false) String fields) {
         
+        SearchRequest.FieldProfile fieldProfile = parseFieldProfile(fields);
         try {
             SearchRequest.SortOption sortOption = determineSortOption(sortBy, sortDir);
             
@@ -149,7 +210,8 @@ public class SearchController {
                     .size(size)
                     .categories(List.of(categoryId))
                     .sortOption(sortOption)
-                    .includeAggregations(true)
+                    .includeAggregations(facets)
+                    .fields(fieldProfile)
                     .build();
             
             SearchResponse response = searchService.searchProducts(request);
@@ -161,22 +223,38 @@ public class SearchController {
     }
     
     /**
-     * API tìm kiếm theo thuộc tính sản phẩm
+     * API tìm kiếm theo thuộc tính sản phẩm.
+     * Các tham số còn lại là bộ lọc thuộc tính, lặp lại tham số để chọn nhiều giá trị,
+     * ví dụ ?keyword=ao&color=Đỏ&color=Xanh&size=M
      */
     @GetMapping("/products/filter")
     public ResponseEntity<SearchResponse> filterProducts(
             @RequestParam(required = false) String keyword,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
-            @RequestParam(required = false) Map<String, List<String>> attributes) {
+            @RequestParam(required = false) String brand,
+            @RequestParam(required = false) String fields,
+            @RequestParam(defaultValue = "false") boolean highlight,
+            @RequestParam MultiValueMap<String, String> params) {
         
+        SearchRequest.FieldProfile fieldProfile = parseFieldProfile(fields);
         try {
+            Map<String, List<String>> attributes = new HashMap<>();
+            params.forEach((name, values) -> {
+                if (!FILTER_RESERVED_PARAMS.contains(name)) {
+                    attributes.put(name, values);
+                }
+            });
+
             SearchRequest request = SearchRequest.builder()
                     .query(keyword)
                     .from(page * size)
                     .size(size)
+                    .brand(brand)
                     .attributes(attributes)
                     .includeAggregations(true)
+                    .fields(fieldProfile)
+                    .highlight(highlight)
                     .build();
             
             SearchResponse response = searchService.searchProducts(request);
@@ -187,6 +265,83 @@ public class SearchController {
         }
     }
     
+    /**
+     * Facet (danh mục, khoảng giá, thuộc tính) và tổng số kết quả của một bộ lọc, không kèm sản phẩm.
+     * Kết quả được cache theo bộ lọc nên client gọi một lần rồi lật trang với facets=false.
+     * Các tham số còn lại là bộ lọc thuộc tính như ở /products/filter.
+     */
+    @GetMapping("/products/facets")
+    @Timed(value = "search.facets.request", description = "Time taken to process facet requests")
+    public ResponseEntity<SearchResponse> getFacets(
+            @RequestParam(required = false) String keyword,
+            @RequestParam(required = false) List<String> categories,
+            @RequestParam(required = false) String brand,
+            @RequestParam(required = false) BigDecimal minPrice,
+            @RequestParam(required = false) BigDecimal maxPrice,
+            @RequestParam MultiValueMap<String, String> params) throws IOException {
+
+        Map<String, List<String>> attributes = new HashMap<>();
+        params.forEach((name, values) -> {
+            if (!FACET_RESERVED_PARAMS.contains(name)) {
+                attributes.put(name, values);
+            }
+        });
+
+        SearchRequest request = SearchRequest.builder()
+                .query(keyword)
+                .categories(categories)
+                .brand(brand)
+                .priceRange(minPrice != null || maxPrice != null
+                        ? SearchRequest.PriceRange.builder().min(minPrice).max(maxPrice).build()
+                        : null)
+                .attributes(attributes)
+                .includeAggregations(true)
+                .build();
+        return ResponseEntity.ok(searchService.getFacets(request));
+    }
+
+    /**
+     * Tìm kiếm trong catalog của một người bán, chỉ chạm một shard của index route theo người bán.
+     * Sản phẩm đã ngừng bán chỉ được trả về khi người gọi (header do gateway gắn sau khi xác thực)
+     * chính là người bán đó hoặc có quyền admin:access; người gọi khác chỉ thấy sản phẩm đang bán.
+     */
+    @GetMapping("/sellers/{sellerId}/products")
+    @Timed(value = "search.seller.request", description = "Time taken to process seller catalog searches")
+    public ResponseEntity<SearchResponse> searchSellerProducts(
+            @PathVariable String sellerId,
+            @RequestParam(required = false) String keyword,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) List<String> categories,
+            @RequestParam(required = false) String sortBy,
+            @RequestParam(defaultValue = "asc") String sortDir,
+            @RequestParam(required = false) String fields,
+            @RequestHeader(value = "X-User-Id", required = false) String userId,
+            @RequestHeader(value = "X-User-Permissions", required = false) String permissions) throws IOException {
+
+        int pageSize = size <= 0 || size > 100 ? 20 : size;
+        SearchRequest request = SearchRequest.builder()
+                .query(keyword)
+                .from(Math.max(0, page) * pageSize)
+                .size(pageSize)
+                .categories(categories)
+                .sortOption(determineSortOption(sortBy, sortDir))
+                .includeAggregations(false)
+                .fields(parseFieldProfile(fields))
+                .build();
+        boolean includeInactive = sellerId.equals(userId) || hasPermission(permissions, "admin:access");
+        return ResponseEntity.ok(searchService.searchSellerProducts(sellerId, request, includeInactive));
+    }
+
+    private static boolean hasPermission(String permissions, String permission) {
+        if (permissions == null) {
+            return false;
+        }
+        return Arrays.stream(permissions.split(","))
+                .map(String::trim)
+                .anyMatch(permission::equals);
+    }
+
     /**
      * Gợi ý tìm kiếm
      */
@@ -194,16 +349,28 @@ public class SearchController {
     @Timed(value = "search.suggestions", description = "Time taken to get search suggestions")
     public ResponseEntity<List<String>> getSuggestions(
             @RequestParam String prefix,
+            @RequestParam(required = false) String category,
             @RequestParam(defaultValue = "5") int size) {
         
         if (size <= 0 || size > 20) {
             size = 5; // Giới hạn size mặc định cho suggestions
         }
         
-        List<String> suggestions = searchService.getSuggestions(prefix, size);
+        List<String> suggestions = searchService.getSuggestions(prefix, category, size);
         return ResponseEntity.ok(suggestions);
     }
     
+    /**
+     * Profile trường trả về (grid, list, detail), null nếu không truyền
+     */
+    private SearchRequest.FieldProfile parseFieldProfile(String fields) {
+        try {
+            return SearchRequest.FieldProfile.from(fields);
+        } catch (IllegalArgumentException e) {
+            throw new SearchServiceException("fields phải là grid, list hoặc detail", "INVALID_FIELD_PROFILE", 400);
+        }
+    }
+
     /**
      * Xác định tùy chọn sắp xếp dựa trên tham số
      */
@@ -238,17 +405,15 @@ public class SearchController {
     }
     
     /**
-     * API để xóa và tạo lại index
+     * API để dựng lại index sang phiên bản mới, tiến độ xem qua /index-status
      */
     @PostMapping("/recreate-index")
     public ResponseEntity<String> recreateIndex() {
         try {
-            boolean success = searchService.recreateIndex();
-            if (success) {
-                return ResponseEntity.ok("Index recreated successfully");
-            } else {
-                return ResponseEntity.internalServerError().body("Failed to recreate index");
-            }
+            String targetIndex = searchService.recreateIndex();
+            return ResponseEntity.accepted().body("Reindex started: " + targetIndex);
+        } catch (SearchServiceException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error recreating index", e);
             return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
@@ -256,39 +421,56 @@ public class SearchController {
     }
     
     /**
-     * API để thêm sản phẩm vào index
+     * API nạp lại toàn bộ catalog từ product-service, resume=true để chạy tiếp từ checkpoint.
+     * Header Authorization (token có quyền admin:access) được chuyển tiếp tới API export của product-service.
+     */
+    @PostMapping("/backfill")
+    public ResponseEntity<Map<String, Object>> startBackfill(
+            @RequestParam(defaultValue = "false") boolean resume,
+            @RequestHeader(value = "Authorization", required = false) String authorization) {
+        return ResponseEntity.accepted().body(productBackfillService.start(resume, authorization));
+    }
+
+    @PostMapping("/backfill/stop")
+    public ResponseEntity<Map<String, Object>> stopBackfill() {
+        productBackfillService.stop();
+        return ResponseEntity.ok(productBackfillService.getStatus());
+    }
+
+    @GetMapping("/backfill")
+    public ResponseEntity<Map<String, Object>> getBackfillStatus() {
+        return ResponseEntity.ok(productBackfillService.getStatus());
+    }
+    
+    /**
+     * API để thêm sản phẩm vào index, kết quả cùng dạng với bulk-index-products
      */
     @PostMapping("/index-product")
-    public ResponseEntity<String> indexProduct(@RequestBody ProductIndexDto product) {
-        try {
-            boolean success = searchService.indexProduct(product);
-            if (success) {
-                return ResponseEntity.ok("Product indexed successfully");
-            } else {
-                return ResponseEntity.badRequest().body("Failed to index product");
-            }
-        } catch (Exception e) {
-            log.error("Error indexing product", e);
-            return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
-        }
+    public ResponseEntity<Map<String, Object>> indexProduct(@RequestBody ProductIndexDto product,
+                                                            @RequestParam(defaultValue = "false") boolean waitForRefresh)
+            throws IOException {
+        Map<String, Object> result = searchService.indexProduct(product, waitForRefresh);
+        return indexResponse(result);
     }
     
     /**
-     * API để thêm nhiều sản phẩm vào index (bulk)
+     * API để thêm nhiều sản phẩm vào index (bulk).
+     * Sản phẩm đã được đồng bộ bằng sự kiện có version không bị ghi đè và được trả về trong skipped.
      */
     @PostMapping("/bulk-index-products")
-    public ResponseEntity<String> bulkIndexProducts(@RequestBody List<ProductIndexDto> products) {
-        try {
-            if (products == null || products.isEmpty()) {
-                return ResponseEntity.badRequest().body("No products provided");
-            }
-            
-            int count = searchService.bulkIndexProducts(products);
-            return ResponseEntity.ok("Indexed " + count + "/" + products.size() + " products successfully");
-        } catch (Exception e) {
-            log.error("Error bulk indexing products", e);
-            return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
+    public ResponseEntity<Map<String, Object>> bulkIndexProducts(@RequestBody List<ProductIndexDto> products,
+                                                                 @RequestParam(defaultValue = "false") boolean waitForRefresh)
+            throws IOException {
+        if (products == null || products.isEmpty()) {
+            throw new SearchServiceException("No products provided", "NO_PRODUCTS", 400);
         }
+        return indexResponse(searchService.bulkIndexProducts(products, waitForRefresh));
+    }
+
+    private ResponseEntity<Map<String, Object>> indexResponse(Map<String, Object> result) {
+        // Có sản phẩm bị Elasticsearch từ chối: dữ liệu không hợp lệ với mapping
+        List<?> failed = (List<?>) result.get("failed");
+        return failed.isEmpty() ? ResponseEntity.ok(result) : ResponseEntity.badRequest().body(result);
     }
     
     /**
@@ -308,9 +490,10 @@ public class SearchController {
      * API để xóa sản phẩm khỏi index
      */
     @DeleteMapping("/product/{id}")
-    public ResponseEntity<String> deleteProduct(@PathVariable String id) {
+    public ResponseEntity<String> deleteProduct(@PathVariable String id,
+                                                @RequestParam(defaultValue = "false") boolean waitForRefresh) {
         try {
-            boolean success = searchService.deleteProduct(id);
+            boolean success = searchService.deleteProduct(id, waitForRefresh);
             if (success) {
                 return ResponseEntity.ok("Product deleted successfully");
             } else {
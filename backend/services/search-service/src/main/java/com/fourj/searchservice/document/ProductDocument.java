@@ -1,6 +1,6 @@
 package com.fourj.searchservice.document;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.*;
@@ -14,26 +14,30 @@ import java.util.Map;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 @Getter
-@Document(indexName = "#{@elasticsearchConfig.indexSettings.products.name}")
+@Document(indexName = "#{@elasticsearchConfig.indexSettings.products.alias}")
 public class ProductDocument {
 
+    // Context của completion nameSuggest, sản phẩm chưa có danh mục dùng giá trị NO_CATEGORY
+    public static final String SUGGEST_CATEGORY_CONTEXT = "category";
+    public static final String NO_CATEGORY = "_none";
+
     @Id
     private String id;
 
     @Field(type = FieldType.Text, analyzer = "standard_lowercase", searchAnalyzer = "standard_lowercase")
     private String name;
 
-    @JsonIgnore
+    // Chỉ ghi vào index, không đọc lại từ _source
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     @CompletionField(
             analyzer = "standard_lowercase",
             searchAnalyzer = "standard_lowercase",
             contexts = {
                     @CompletionContext(
-                            name = "category",
-                            type = CompletionContext.ContextMappingType.CATEGORY,
-                            path = "categoryName"
+                            name = SUGGEST_CATEGORY_CONTEXT,
+                            type = CompletionContext.ContextMappingType.CATEGORY
                     )
             }
     )
@@ -57,6 +61,10 @@ public class ProductDocument {
     @Field(type = FieldType.Keyword)
     private String categoryName;
 
+    // Người bán, cũng là routing key của index theo người bán
+    @Field(type = FieldType.Keyword)
+    private String sellerId;
+
     @Field(type = FieldType.Nested)
     private List<ProductAttribute> attributes = new ArrayList<>();
 
@@ -94,6 +102,14 @@ public class ProductDocument {
     @Field(type = FieldType.Keyword)
     private List<String> tags; // Các tag đặc biệt (hot, new, sale,...)
 
+    // Version của sự kiện đã ghi document (id outbox của product-service), sự kiện cũ hơn bị bỏ qua
+    @Field(type = FieldType.Long)
+    private Long eventVersion;
+
+    // true với document đánh dấu đã xóa (active=false), giữ lại một thời gian để chặn sự kiện cũ đến muộn
+    @Field(type = FieldType.Boolean)
+    private Boolean deleted;
+
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
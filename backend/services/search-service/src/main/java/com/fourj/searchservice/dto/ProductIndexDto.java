@@ -1,5 +1,6 @@
 package com.fourj.searchservice.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fourj.searchservice.document.ProductDocument;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -12,11 +13,15 @@ import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
 @Document(indexName = "products")
 public class ProductIndexDto {
 
@@ -37,6 +42,9 @@ public class ProductIndexDto {
     
     @Field(type = FieldType.Keyword)
     private String categoryName;
+
+    @Field(type = FieldType.Keyword)
+    private String sellerId;
     
     @Field(type = FieldType.Boolean)
     private boolean active;
@@ -47,6 +55,35 @@ public class ProductIndexDto {
     @Field(type = FieldType.Float)
     private Float rating;
 
+    @Field(type = FieldType.Integer)
+    private Integer soldCount;
+
+    // Các trường dưới đây chỉ có khi request dùng profile tương ứng (xem SearchRequest.FieldProfile)
+    @Field(type = FieldType.Double)
+    private BigDecimal originalPrice;
+
+    @Field(type = FieldType.Double)
+    private BigDecimal discountPercent;
+
+    @Field(type = FieldType.Integer)
+    private Integer reviewCount;
+
+    @Field(type = FieldType.Keyword)
+    private List<String> tags;
+
+    @Field(type = FieldType.Integer)
+    private Integer stockQuantity;
+
+    @Field(type = FieldType.Nested)
+    private List<ProductDocument.ProductAttribute> attributes;
+
+    @Field(type = FieldType.Object)
+    private Map<String, String> images;
+
+    // Đoạn trích có đánh dấu từ khóa theo tên trường, chỉ có khi request bật highlight
+    @org.springframework.data.annotation.Transient
+    private Map<String, List<String>> highlights;
+
     // Phương thức chuyển đổi từ ProductDocument
     public static ProductIndexDto fromProductDocument(ProductDocument doc) {
         return ProductIndexDto.builder()
@@ -56,9 +93,42 @@ public class ProductIndexDto {
                 .price(doc.getPrice())
                 .imageUrl(doc.getImageUrl())
                 .categoryName(doc.getCategoryName())
+                .sellerId(doc.getSellerId())
                 .active(doc.isActive())
                 .inStock(doc.getInStock())
                 .rating(doc.getRating())
+                .soldCount(doc.getSoldCount())
+                .originalPrice(doc.getOriginalPrice())
+                .discountPercent(doc.getDiscountPercent())
+                .reviewCount(doc.getReviewCount())
+                .tags(doc.getTags())
+                .stockQuantity(doc.getStockQuantity())
+                .attributes(doc.getAttributes())
+                .images(doc.getImages())
+                .build();
+    }
+
+    // Phương thức chuyển đổi sang ProductDocument để ghi qua ProductBulkIngester
+    public ProductDocument toProductDocument() {
+        return ProductDocument.builder()
+                .id(id)
+                .name(name)
+                .description(description)
+                .price(price)
+                .imageUrl(imageUrl)
+                .categoryName(categoryName)
+                .sellerId(sellerId)
+                .active(active)
+                .inStock(inStock)
+                .rating(rating)
+                .soldCount(soldCount)
+                .originalPrice(originalPrice)
+                .discountPercent(discountPercent)
+                .reviewCount(reviewCount)
+                .tags(tags)
+                .stockQuantity(stockQuantity)
+                .attributes(attributes != null ? attributes : new ArrayList<>())
+                .images(images)
                 .build();
     }
 } 
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.fourj.searchservice.dto;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -7,10 +8,11 @@ import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 public class SearchRequest {
     private String query;
     private List<String> categories;
@@ -22,6 +24,9 @@ public class SearchRequest {
     private int size;
     private boolean includeAggregations;
     private String userId;  // For personalization
+    private String cursor;  // nextCursor của trang trước, chỉ dùng cho API cursor
+    private FieldProfile fields; // Các trường trả về cho mỗi sản phẩm, mặc định mọi trường (như DETAIL)
+    private boolean highlight;  // Trả về đoạn trích đánh dấu từ khóa, chỉ có tác dụng khi có query
 
     @Data
     @Builder
@@ -32,6 +37,21 @@ public class SearchRequest {
         private BigDecimal max;
     }
 
+    /**
+     * Tập trường _source được lấy cho mỗi sản phẩm, tùy màn hình hiển thị:
+     * GRID cho lưới sản phẩm (tên, giá, ảnh), LIST thêm mô tả và danh mục, DETAIL lấy mọi trường
+     */
+    public enum FieldProfile {
+        GRID,
+        LIST,
+        DETAIL;
+
+        @JsonCreator
+        public static FieldProfile from(String value) {
+            return value == null || value.isBlank() ? null : valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
     public enum SortOption {
         RELEVANCE,
         PRICE_ASC,
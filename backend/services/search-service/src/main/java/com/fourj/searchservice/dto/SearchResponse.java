@@ -15,12 +15,16 @@ import java.util.Map;
 @AllArgsConstructor
 public class SearchResponse {
     private long totalHits;
+    private String totalHitsRelation; // "eq" nếu chính xác, "gte" nếu totalHits chỉ là cận dưới
     private int page;
     private int size;
     private List<ProductIndexDto> products;
     private List<String> suggestedTerms;
     private Map<String, List<FacetEntry>> facets;
     private String searchTime;
+    private String nextCursor; // Chỉ có ở API cursor, null khi đã hết kết quả
+    private boolean stale; // true nếu là kết quả lưu từ trước, trả về khi Elasticsearch không khả dụng
+    private boolean degraded; // true nếu được trả lời từ index cục bộ (không có facet, highlight)
 
     @Data
     @Builder
@@ -0,0 +1,83 @@
+package com.fourj.searchservice.listener;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fourj.searchservice.service.SalesSignalAggregator;
+import com.fourj.searchservice.service.UserAffinityService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OrderEventListener {
+
+    private final ObjectMapper objectMapper;
+    private final SalesSignalAggregator salesSignalAggregator;
+    private final UserAffinityService userAffinityService;
+
+    /**
+     * Đọc số lượng bán từ các đơn hàng mới và cộng dồn vào bộ đếm trong bộ nhớ.
+     * Offset được commit khi đã cộng dồn, nên số liệu chưa flush có thể mất nếu service dừng đột ngột;
+     * soldCount chỉ dùng để xếp hạng nên chấp nhận sai lệch nhỏ này.
+     * Cùng lô đơn hàng cũng cập nhật hồ sơ sở thích danh mục của người mua.
+     */
+    @KafkaListener(topics = "${kafka.topics.order-created:order_created_topic}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "batchKafkaListenerContainerFactory")
+    public void handleOrderEvents(List<ConsumerRecord<String, String>> records, Acknowledgment acknowledgment) {
+        long[] productIds = new long[Math.max(16, records.size() * 4)];
+        long[] quantities = new long[productIds.length];
+        int count = 0;
+        Map<String, Map<String, Long>> purchases = new HashMap<>();
+
+        for (ConsumerRecord<String, String> record : records) {
+            if (record.value() == null) {
+                log.warn("Skipping order event that could not be deserialized");
+                continue;
+            }
+            try {
+                JsonNode order = objectMapper.readTree(record.value());
+                String userId = order.path("userId").asText(null);
+                JsonNode items = order.path("items");
+                for (JsonNode item : items) {
+                    if (!item.hasNonNull("productId")) {
+                        continue;
+                    }
+                    if (count == productIds.length) {
+                        productIds = Arrays.copyOf(productIds, count * 2);
+                        quantities = Arrays.copyOf(quantities, count * 2);
+                    }
+                    productIds[count] = item.path("productId").asLong();
+                    quantities[count] = item.path("quantity").asLong();
+                    if (userId != null) {
+                        purchases.computeIfAbsent(userId, k -> new HashMap<>())
+                                .merge(item.path("productId").asText(), quantities[count], Long::sum);
+                    }
+                    count++;
+                }
+            } catch (Exception e) {
+                // Message hỏng không thể xử lý lại được, bỏ qua để không chặn cả partition
+                log.error("Error processing order event: {}", record.value(), e);
+            }
+        }
+
+        salesSignalAggregator.record(productIds, quantities, count);
+        try {
+            userAffinityService.recordPurchases(purchases);
+        } catch (Exception e) {
+            log.warn("Could not update user affinity for {} users: {}", purchases.size(), e.getMessage());
+        }
+        acknowledgment.acknowledge();
+        log.debug("Recorded {} order items from {} order events", count, records.size());
+    }
+}
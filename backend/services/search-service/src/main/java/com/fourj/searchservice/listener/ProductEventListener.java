@@ -1,25 +1,28 @@
 package com.fourj.searchservice.listener;
 
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fourj.searchservice.document.ProductDocument;
-import com.fourj.searchservice.service.ProductIndexingService;
+import com.fourj.searchservice.service.ProductBulkIngester;
+import com.fourj.searchservice.service.ProductDocumentConverter;
+import com.fourj.searchservice.service.LocalProductIndex;
+import com.fourj.searchservice.service.ProductNameIndex;
+import com.fourj.searchservice.service.SearchResultCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.elasticsearch.core.suggest.Completion;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.Set;
 
 @Component
 @RequiredArgsConstructor
@@ -27,232 +30,171 @@ import java.util.concurrent.locks.ReentrantLock;
 public class ProductEventListener {
 
     private final ObjectMapper objectMapper;
-    private final ProductIndexingService productIndexingService;
-    
-    private static final int BATCH_SIZE = 100;
-    private final List<ProductDocument> batchBuffer = Collections.synchronizedList(new ArrayList<>(BATCH_SIZE));
-    private final AtomicInteger batchCounter = new AtomicInteger(0);
-    private final ReentrantLock batchLock = new ReentrantLock();
-    
-    @KafkaListener(topics = "${kafka.topics.product-events:product-events}", groupId = "${spring.kafka.consumer.group-id}")
-    public void handleProductEvent(String payload) {
+    private final ProductBulkIngester bulkIngester;
+    private final SearchResultCache searchResultCache;
+    private final ProductNameIndex productNameIndex;
+    private final LocalProductIndex localProductIndex;
+    private final ProductDocumentConverter productDocumentConverter;
+
+    /**
+     * Nhận cả lô sự kiện của một lần poll, chuyển thành thao tác bulk và chỉ commit offset
+     * sau khi Elasticsearch xác nhận. Nếu ghi thất bại, exception làm container xử lý lại cả lô.
+     * Sự kiện mang version (id outbox) nên Elasticsearch bỏ qua bản cũ đến sau bản mới: các partition
+     * được xử lý song song và thao tác của chúng được gom chung vào bulk ingester.
+     */
+    @KafkaListener(topics = "${kafka.topics.product-events:product-events}",
+            groupId = "${spring.kafka.consumer.group-id}",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            concurrency = "${kafka.consumer.product-concurrency:3}")
+    public void handleProductEvents(List<ConsumerRecord<String, String>> records, Acknowledgment acknowledgment) {
+        // Mỗi sản phẩm chỉ giữ thao tác có version cao nhất trong lô (sự kiện không có version: thao tác cuối cùng)
+        // để không ghi một document nhiều lần; lô có thể chứa sự kiện từ nhiều partition không theo thứ tự
+        Map<String, BulkOperation> operations = new LinkedHashMap<>();
+        BatchChanges changes = new BatchChanges();
+        for (ConsumerRecord<String, String> record : records) {
+            collectOperations(record.value(), operations, changes);
+        }
+
+        if (!operations.isEmpty()) {
+            // Đọc trạng thái trước khi ghi: routing cũ cho index theo người bán và danh mục cũ cho cache
+            Map<String, ProductDocument> current = bulkIngester.currentDocuments(changes.documents.keySet());
+            changes.previous(current);
+            List<BulkOperation> batch = new ArrayList<>(operations.values());
+            batch.addAll(bulkIngester.sellerOperations(changes.documents, current));
+            bulkIngester.submitAndWait(batch);
+        }
+        acknowledgment.acknowledge();
+
+        if (changes.deleted) {
+            searchResultCache.invalidateAll();
+        } else if (!changes.categories.isEmpty()) {
+            searchResultCache.invalidateCategories(changes.categories);
+        }
+        productNameIndex.apply(changes.documents);
+        localProductIndex.apply(changes.documents);
+        log.debug("Processed {} product events as {} bulk operations", records.size(), operations.size());
+    }
+
+    private void collectOperations(String payload, Map<String, BulkOperation> operations,
+                                   BatchChanges changes) {
+        if (payload == null) {
+            // ErrorHandlingDeserializer trả về null khi không đọc được message
+            log.warn("Skipping product event that could not be deserialized");
+            return;
+        }
+
         try {
             JsonNode eventNode = objectMapper.readTree(payload);
             String eventType = eventNode.path("eventType").asText();
-            
+            // Sự kiện từ phiên bản product-service cũ không có version, khi đó ghi đè như trước
+            Long version = eventNode.path("version").isNumber() ? eventNode.path("version").asLong() : null;
+
             log.debug("Received product event: type={}", eventType);
-            
+
             switch (eventType) {
                 case "PRODUCT_CREATED":
                 case "PRODUCT_UPDATED":
-                    JsonNode productNode = eventNode.path("payload");
-                    
                     // Chuyển đổi từ Product model sang ProductDocument
-                    ProductDocument product = convertToProductDocument(productNode);
-                    
+                    ProductDocument product = productDocumentConverter.convert(eventNode.path("payload"));
+
                     if (product != null) {
-                        handleProductCreateOrUpdate(product);
+                        product.setEventVersion(version);
+                        if (changes.supersedes(product.getId(), version)) {
+                            operations.remove(product.getId());
+                            operations.put(product.getId(), bulkIngester.indexOperation(product));
+                            changes.indexed(product);
+                        }
                     } else {
-                        log.warn("Could not convert product payload for id: {}", 
+                        log.warn("Could not convert product payload for id: {}",
                                 eventNode.path("productId").asText());
                     }
                     break;
-                    
+
                 case "PRODUCT_DELETED":
                     String productId = eventNode.path("productId").asText();
-                    productIndexingService.deleteProduct(productId);
+                    if (!changes.supersedes(productId, version)) {
+                        break;
+                    }
+                    operations.remove(productId);
+                    if (version != null) {
+                        ProductDocument tombstone = ProductBulkIngester.tombstone(productId, version);
+                        operations.put(productId, bulkIngester.deleteOperation(tombstone));
+                        changes.deleted(productId, tombstone);
+                    } else {
+                        operations.put(productId, bulkIngester.deleteOperation(productId));
+                        changes.deleted(productId, null);
+                    }
                     break;
-                    
+
                 case "PRODUCT_BULK_UPDATED":
-                    List<ProductDocument> products = new ArrayList<>();
                     JsonNode productsNode = eventNode.path("payload");
-                    
                     if (productsNode.isArray()) {
                         for (JsonNode node : productsNode) {
-                            ProductDocument doc = convertToProductDocument(node);
+                            ProductDocument doc = productDocumentConverter.convert(node);
                             if (doc != null) {
-                                products.add(doc);
+                                doc.setEventVersion(version);
+                                if (changes.supersedes(doc.getId(), version)) {
+                                    operations.remove(doc.getId());
+                                    operations.put(doc.getId(), bulkIngester.indexOperation(doc));
+                                    changes.indexed(doc);
+                                }
                             }
                         }
-                        
-                        if (!products.isEmpty()) {
-                            productIndexingService.bulkIndexProducts(products);
-                        }
                     }
                     break;
-                    
+
                 default:
                     log.warn("Unknown event type: {}", eventType);
             }
         } catch (Exception e) {
+            // Message hỏng không thể xử lý lại được, bỏ qua để không chặn cả partition
             log.error("Error processing product event: {}", payload, e);
-            // Cân nhắc gửi đến dead-letter-queue
         }
     }
     
     /**
-     * Chuyển đổi từ Product model sang ProductDocument
+     * Thay đổi của một lô sự kiện: các phạm vi cache kết quả tìm kiếm bị ảnh hưởng
+     * và trạng thái cuối của từng sản phẩm (null hoặc tombstone nếu đã bị xóa)
      */
-    private ProductDocument convertToProductDocument(JsonNode productNode) {
-        try {
-            Long id = productNode.path("id").asLong();
-            String name = productNode.path("name").asText();
-            // Xử lý createdAt
-            LocalDateTime createdAt;
-            if (productNode.has("createdAt") && !productNode.path("createdAt").asText().isEmpty()) {
-                try {
-                    createdAt = LocalDateTime.parse(productNode.path("createdAt").asText());
-                } catch (DateTimeParseException e) {
-                    log.warn("Invalid createdAt format: {}, using current time",
-                            productNode.path("createdAt").asText());
-                    createdAt = LocalDateTime.now();
-                }
-            } else {
-                createdAt = LocalDateTime.now();
-            }
+    private static class BatchChanges {
+        private final Set<String> categories = new HashSet<>();
+        private final Map<String, ProductDocument> documents = new LinkedHashMap<>();
+        // Version của thao tác đang giữ cho mỗi sản phẩm, null nếu sự kiện không có version
+        private final Map<String, Long> versions = new HashMap<>();
+        private boolean deleted;
 
-            // Xử lý updatedAt
-            LocalDateTime updatedAt;
-            if (productNode.has("updatedAt") && !productNode.path("updatedAt").asText().isEmpty()) {
-                try {
-                    updatedAt = LocalDateTime.parse(productNode.path("updatedAt").asText());
-                } catch (DateTimeParseException e) {
-                    log.warn("Invalid updatedAt format: {}, using current time",
-                            productNode.path("updatedAt").asText());
-                    updatedAt = LocalDateTime.now();
-                }
-            } else {
-                updatedAt = LocalDateTime.now();
-            }
-            
-            ProductDocument document = ProductDocument.builder()
-                    .id(String.valueOf(id))
-                    .name(name)
-                    .description(productNode.path("description").asText())
-                    .price(productNode.has("price") ? 
-                            new BigDecimal(productNode.path("price").asText()) : null)
-                    .stockQuantity(productNode.path("stockQuantity").asInt())
-                    .imageUrl(productNode.path("imageUrl").asText())
-                    .categoryId(productNode.path("categoryId").asLong())
-                    .categoryName(productNode.path("categoryName").asText())
-                    .active(productNode.path("active").asBoolean(true))
-                    .createdAt(createdAt)
-                    .updatedAt(updatedAt)
-                    .inStock(productNode.path("stockQuantity").asInt() > 0)
-                    .build();
-            
-            // Thêm completion cho search suggest
-            Completion nameSuggest = new Completion(Collections.singletonList(name));
-            document.setNameSuggest(nameSuggest);
-            
-            // Trích xuất attributes nếu có
-            if (productNode.has("attributes") && productNode.path("attributes").isArray()) {
-                List<ProductDocument.ProductAttribute> attributes = new ArrayList<>();
-                
-                for (JsonNode attrNode : productNode.path("attributes")) {
-                    ProductDocument.ProductAttribute attribute = ProductDocument.ProductAttribute.builder()
-                            .name(attrNode.path("name").asText())
-                            .value(attrNode.path("value").asText())
-                            .displayName(attrNode.path("name").asText())
-                            .displayValue(attrNode.path("value").asText())
-                            .build();
-                    
-                    attributes.add(attribute);
-                }
-                
-                document.setAttributes(attributes);
-            }
-            
-            return document;
-        } catch (Exception e) {
-            log.error("Error converting product node to document", e);
-            return null;
+        /**
+         * Sự kiện có thay thế thao tác đang giữ của sản phẩm không: chỉ bỏ qua khi cả hai đều có version
+         * và sự kiện mới cũ hơn. Tombstone cũng là một thao tác có version như mọi thao tác khác.
+         */
+        boolean supersedes(String productId, Long version) {
+            Long current = versions.get(productId);
+            return version == null || current == null || version >= current;
         }
-    }
-    
-    /**
-     * Xử lý tạo hoặc cập nhật sản phẩm
-     * Tối ưu bằng cách gom nhóm các sản phẩm để bulk index
-     */
-    private void handleProductCreateOrUpdate(ProductDocument product) {
-        try {
-            // Đầu tiên, luôn đảm bảo sản phẩm mới được indexed ngay lập tức
-            try {
-                productIndexingService.indexProduct(product);
-                log.info("Product immediately indexed: {}", product.getId());
-            } catch (Exception e) {
-                log.error("Failed to immediately index product: {}", product.getId(), e);
-            }
-            
-            // Vẫn giữ logic batch cho các cập nhật tiếp theo
-            batchLock.lock();
-            try {
-                // Thêm sản phẩm vào buffer
-                batchBuffer.add(product);
-                int currentSize = batchCounter.incrementAndGet();
-                
-                // Nếu buffer đầy, thực hiện bulk index
-                if (currentSize >= BATCH_SIZE) {
-                    List<ProductDocument> batchToProcess = new ArrayList<>(batchBuffer);
-                    batchBuffer.clear();
-                    batchCounter.set(0);
-                    
-                    batchLock.unlock(); // Unlock trước khi gọi service để tránh blocking
-                    
-                    try {
-                        productIndexingService.bulkIndexProducts(batchToProcess);
-                    } catch (Exception e) {
-                        log.error("Error during bulk indexing, processing individually", e);
-                        // Xử lý từng sản phẩm
-                        for (ProductDocument doc : batchToProcess) {
-                            try {
-                                productIndexingService.indexProduct(doc);
-                            } catch (Exception ex) {
-                                log.error("Failed to index individual product: {}", doc.getId(), ex);
-                            }
-                        }
-                    }
-                } else {
-                    batchLock.unlock(); // Unlock nếu chưa đủ kích thước batch
-                }
-            } finally {
-                if (batchLock.isHeldByCurrentThread()) {
-                    batchLock.unlock();
+
+        void indexed(ProductDocument document) {
+            categories.add(document.getCategoryName());
+            documents.put(document.getId(), document);
+            versions.put(document.getId(), document.getEventVersion());
+        }
+
+        /**
+         * Sản phẩm chuyển danh mục vẫn nằm trong kết quả cache của danh mục cũ nên danh mục cũ cũng bị ảnh hưởng
+         */
+        void previous(Map<String, ProductDocument> current) {
+            documents.forEach((productId, document) -> {
+                ProductDocument previous = current.get(productId);
+                if (document != null && previous != null) {
+                    categories.add(previous.getCategoryName());
                 }
-            }
-        } catch (Exception e) {
-            log.error("Critical error in batch processing: {}", e.getMessage(), e);
-            // Luôn đảm bảo xử lý sản phẩm hiện tại
-            try {
-                productIndexingService.indexProduct(product);
-            } catch (Exception ignored) {
-                log.error("Failed to index product as fallback: {}", product.getId(), ignored);
-            }
+            });
         }
-    }
 
-    // Thêm scheduler để xử lý batch còn lại nếu không đủ kích thước
-    @Scheduled(fixedDelay = 30000) // 30 giây
-    public void processRemainingBatch() {
-        try {
-            batchLock.lock();
-            if (!batchBuffer.isEmpty()) {
-                log.info("Processing remaining {} items in batch", batchBuffer.size());
-                List<ProductDocument> batchToProcess = new ArrayList<>(batchBuffer);
-                batchBuffer.clear();
-                batchCounter.set(0);
-                
-                batchLock.unlock();
-                
-                productIndexingService.bulkIndexProducts(batchToProcess);
-            } else {
-                batchLock.unlock();
-            }
-        } catch (Exception e) {
-            log.error("Error processing remaining batch", e);
-            if (batchLock.isHeldByCurrentThread()) {
-                batchLock.unlock();
-            }
+        void deleted(String productId, ProductDocument tombstone) {
+            // Sự kiện xóa không mang danh mục nên làm mất hiệu lực toàn bộ cache
+            deleted = true;
+            documents.put(productId, tombstone);
+            versions.put(productId, tombstone != null ? tombstone.getEventVersion() : null);
         }
     }
-} 
\ No newline at end of file
+}
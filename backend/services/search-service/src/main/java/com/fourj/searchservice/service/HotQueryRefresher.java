@@ -0,0 +1,98 @@
+package com.fourj.searchservice.service;
+
+import com.fourj.searchservice.config.RedisConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Làm mới kết quả của các truy vấn phổ biến trước khi cache hết hạn, để trang chủ và
+ * truy vấn thịnh hành không bao giờ phải chờ Elasticsearch.
+ * Cache hotKeys giữ lease theo từng truy vấn trong hot-keys-ttl, nên mỗi chu kỳ
+ * chỉ một instance gọi Elasticsearch cho một truy vấn.
+ */
+@Component
+@Slf4j
+public class HotQueryRefresher {
+
+    private static final String HOT_KEYS_CACHE = "hotKeys";
+
+    private final HotQueryTracker hotQueryTracker;
+    private final SearchService searchService;
+    private final CacheManager cacheManager;
+    private final RedisConfig redisConfig;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hot-query-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public HotQueryRefresher(HotQueryTracker hotQueryTracker,
+                             SearchService searchService,
+                             CacheManager cacheManager,
+                             RedisConfig redisConfig) {
+        this.hotQueryTracker = hotQueryTracker;
+        this.searchService = searchService;
+        this.cacheManager = cacheManager;
+        this.redisConfig = redisConfig;
+    }
+
+    @PostConstruct
+    public void start() {
+        long refreshInterval = Math.max(1, redisConfig.getHotKeysTtl());
+        scheduler.scheduleWithFixedDelay(this::refreshHotQueries, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+        long decayInterval = redisConfig.getHotQueryDecayInterval();
+        scheduler.scheduleAtFixedRate(hotQueryTracker::decay, decayInterval, decayInterval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    void refreshHotQueries() {
+        Duration refreshAhead = Duration.ofSeconds(redisConfig.getHotQueryRefreshAhead());
+        int refreshed = 0;
+        for (HotQueryTracker.HotQuery hotQuery : hotQueryTracker.topQueries()) {
+            if (hotQuery.getCount() < redisConfig.getHotQueryMinCount()) {
+                break;
+            }
+            if (!acquireLease(hotQuery.getFingerprint())) {
+                continue;
+            }
+            try {
+                if (searchService.refreshCachedSearch(hotQuery.getRequest(), refreshAhead)) {
+                    refreshed++;
+                }
+            } catch (Exception e) {
+                // Elasticsearch lỗi hoặc circuit breaker đang mở: giữ kết quả cũ, chu kỳ sau thử lại
+                log.warn("Không thể làm mới truy vấn phổ biến {}: {}", hotQuery.getFingerprint(), e.getMessage());
+                break;
+            }
+        }
+        if (refreshed > 0) {
+            log.debug("Refreshed {} hot search queries", refreshed);
+        }
+    }
+
+    private boolean acquireLease(String fingerprint) {
+        try {
+            Cache hotKeys = cacheManager.getCache(HOT_KEYS_CACHE);
+            Cache.ValueWrapper holder = hotKeys.putIfAbsent(fingerprint, instanceId);
+            return holder == null || instanceId.equals(holder.get());
+        } catch (Exception e) {
+            // Không có Redis thì mỗi instance tự làm mới cache cục bộ của mình
+            return true;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.fourj.searchservice.service;
+
+import com.fourj.searchservice.config.RedisConfig;
+import com.fourj.searchservice.dto.SearchRequest;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Thống kê các truy vấn tìm kiếm phổ biến trên luồng request với bộ nhớ cố định:
+ * count-min sketch ước lượng tần suất của mọi truy vấn, heap giữ K truy vấn có tần suất cao nhất.
+ * Bộ đếm được chia đôi định kỳ để truy vấn đang thịnh hành thay thế truy vấn đã cũ.
+ */
+@Component
+public class HotQueryTracker {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1 << 14;
+
+    private final SearchResultCache searchResultCache;
+    private final int topK;
+
+    private final long[][] sketch = new long[SKETCH_DEPTH][SKETCH_WIDTH];
+    private final Map<String, HotQuery> candidates = new HashMap<>();
+    private final PriorityQueue<HotQuery> heap = new PriorityQueue<>(Comparator.comparingLong(HotQuery::getCount));
+
+    public HotQueryTracker(SearchResultCache searchResultCache, RedisConfig redisConfig) {
+        this.searchResultCache = searchResultCache;
+        this.topK = redisConfig.getHotQueryTopK();
+    }
+
+    public void record(SearchRequest request) {
+        String fingerprint = searchResultCache.fingerprint(request);
+        // Fingerprint là SHA-256 dạng hex nên 16 ký tự đầu đã đủ phân bố đều cho các hàm băm
+        long hash = Long.parseUnsignedLong(fingerprint.substring(0, 16), 16);
+
+        synchronized (this) {
+            long estimate = increment(hash);
+
+            HotQuery existing = candidates.get(fingerprint);
+            if (existing != null) {
+                heap.remove(existing);
+                existing.count = estimate;
+                heap.add(existing);
+                return;
+            }
+            if (heap.size() >= topK) {
+                if (estimate <= heap.peek().count) {
+                    return;
+                }
+                candidates.remove(heap.poll().fingerprint);
+            }
+            // Chỉ giữ phần định nghĩa truy vấn: userId và cursor không thuộc fingerprint, lại lộ ra qua actuator
+            HotQuery hotQuery = new HotQuery(fingerprint, request.toBuilder().userId(null).cursor(null).build(), estimate);
+            candidates.put(fingerprint, hotQuery);
+            heap.add(hotQuery);
+        }
+    }
+
+    /**
+     * Các truy vấn phổ biến nhất, giảm dần theo tần suất ước lượng
+     */
+    public synchronized List<HotQuery> topQueries() {
+        List<HotQuery> result = new ArrayList<>(heap.size());
+        heap.forEach(hotQuery -> result.add(new HotQuery(hotQuery.fingerprint, hotQuery.request, hotQuery.count)));
+        result.sort(Comparator.comparingLong(HotQuery::getCount).reversed());
+        return result;
+    }
+
+    /**
+     * Chia đôi mọi bộ đếm, truy vấn không còn được tìm sẽ dần rời khỏi top-K
+     */
+    public synchronized void decay() {
+        for (long[] row : sketch) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        List<HotQuery> current = new ArrayList<>(heap);
+        heap.clear();
+        for (HotQuery hotQuery : current) {
+            hotQuery.count >>>= 1;
+            if (hotQuery.count == 0) {
+                candidates.remove(hotQuery.fingerprint);
+            } else {
+                heap.add(hotQuery);
+            }
+        }
+    }
+
+    /**
+     * Tăng bộ đếm ở mỗi hàng (double hashing) và trả về ước lượng nhỏ nhất
+     */
+    private long increment(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int index = (h1 + row * h2) & (SKETCH_WIDTH - 1);
+            estimate = Math.min(estimate, ++sketch[row][index]);
+        }
+        return estimate;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class HotQuery {
+        private final String fingerprint;
+        private final SearchRequest request;
+        private long count;
+    }
+}
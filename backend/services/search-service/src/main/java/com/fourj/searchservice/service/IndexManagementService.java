@@ -1,11 +1,13 @@
 package com.fourj.searchservice.service;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch._types.analysis.TokenFilter;
 import co.elastic.clients.elasticsearch._types.analysis.TokenFilterDefinition;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
 import co.elastic.clients.elasticsearch.indices.*;
+import co.elastic.clients.json.JsonData;
 import co.elastic.clients.util.ObjectBuilder;
 import com.fourj.searchservice.config.ElasticsearchConfig;
+import com.fourj.searchservice.document.ProductDocument;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -13,122 +15,339 @@ import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.elasticsearch.core.TimeValue;
 
-
-
+/**
+ * Quản lý index sản phẩm theo mô hình blue/green: dữ liệu nằm trong các index có phiên bản
+ * (products_v1, products_v2, ...) tạo từ một index template duy nhất, mọi thao tác đọc/ghi
+ * đi qua alias (product_search) nên có thể đổi sang index mới mà không gián đoạn tìm kiếm.
+ * Ngoài ra có một index riêng route theo sellerId (product_seller_search) để tìm kiếm trong catalog
+ * của một người bán chỉ chạm đúng một shard.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class IndexManagementService {
 
+    // Tăng khi thay đổi settings/mapping trong template, sau đó chạy reindex để áp dụng
+    public static final long TEMPLATE_VERSION = 5;
+    private static final String TEMPLATE_VERSION_META = "templateVersion";
+
+    // Subfield của name: prefix chứa edge n-gram từng từ, infix chứa trigram để khớp chuỗi con
+    public static final String NAME_PREFIX_SUBFIELD = "prefix";
+    public static final String NAME_INFIX_SUBFIELD = "infix";
+
+    // Chỉ thay được khi tạo index mới, đổi trường này cần tăng TEMPLATE_VERSION và reindex
+    public static final String INDEX_SORT_FIELD = "createdAt";
+
     private final ElasticsearchClient client;
     private final ElasticsearchConfig elasticsearchConfig;
 
+    // Cache trạng thái tồn tại của alias để các thao tác ghi không phải gọi exists mỗi lần
+    private final AtomicBoolean productIndexExists = new AtomicBoolean(false);
+    private final AtomicBoolean sellerIndexExists = new AtomicBoolean(false);
+
+    // Index đang được dựng trong lúc reindex, các thao tác ghi được gửi đồng thời vào đây
+    private volatile String migrationTarget;
+
     @EventListener(ApplicationReadyEvent.class)
     public void initializeIndices() {
         try {
+            putProductIndexTemplate();
             createProductIndexIfNotExists();
+            if (sellerIndexEnabled()) {
+                createSellerIndexIfNotExists();
+            }
         } catch (IOException e) {
             log.error("Failed to initialize Elasticsearch indices", e);
         }
     }
 
-    @CircuitBreaker(name = "elasticsearch")
-    private void createProductIndexIfNotExists() throws IOException {
+    /**
+     * Alias dùng cho mọi thao tác đọc/ghi sản phẩm
+     */
+    public String productAlias() {
+        return elasticsearchConfig.getIndexSettings().getProducts().getAlias();
+    }
+
+    /**
+     * Alias của index route theo người bán, chỉ dùng khi sellerIndexEnabled()
+     */
+    public String sellerAlias() {
+        return elasticsearchConfig.getIndexSettings().getSellerProducts().getAlias();
+    }
+
+    public boolean sellerIndexEnabled() {
+        return elasticsearchConfig.getIndexSettings().getSellerProducts() != null;
+    }
+
+    public String getMigrationTarget() {
+        return migrationTarget;
+    }
+
+    void setMigrationTarget(String migrationTarget) {
+        this.migrationTarget = migrationTarget;
+    }
+
+    /**
+     * Ghi template cho products_v*, idempotent nên được gọi mỗi lần khởi động
+     */
+    public void putProductIndexTemplate() throws IOException {
         var indexSettings = elasticsearchConfig.getIndexSettings().getProducts();
-        String indexName = indexSettings.getName();
+        client.indices().putIndexTemplate(t -> t
+                .name(indexSettings.getName() + "_template")
+                .indexPatterns(indexSettings.getName() + "_v*")
+                .version(TEMPLATE_VERSION)
+                .template(tm -> tm
+                        .settings(s -> productIndexSettings(s, indexSettings))
+                        .mappings(this::productMappings)));
+        log.info("Index template for {}_v* updated to version {}", indexSettings.getName(), TEMPLATE_VERSION);
+    }
 
-        boolean exists = client.indices().exists(ex -> ex.index(indexName)).value();
+    @CircuitBreaker(name = "elasticsearch")
+    private void createProductIndexIfNotExists() throws IOException {
+        String alias = productAlias();
+        boolean exists = client.indices().existsAlias(a -> a.name(alias)).value();
 
         if (!exists) {
-            log.info("Creating Elasticsearch index: {}", indexName);
-
-            Map<String, Alias> aliases = new HashMap<>();
-            for (String alias : indexSettings.getAliases()) {
-                aliases.put(alias, Alias.of(a -> a.isWriteIndex(true)));
-            }
-            
-            // Tạo bộ lọc stop token cho tiếng Việt
+            String indexName = nextVersionedIndexName();
+            log.info("Creating Elasticsearch index {} behind alias {}", indexName, alias);
             CreateIndexResponse response = client.indices().create(c -> c
                     .index(indexName)
-                    .settings(s -> s
-                            .numberOfShards(String.valueOf(indexSettings.getShards()))
-                            .numberOfReplicas(String.valueOf(indexSettings.getReplicas()))
-                            .refreshInterval(builder -> builder.time(
-                                    TimeValue.parseTimeValue(indexSettings.getRefreshInterval(), "refreshInterval").toString()
-                            ))
-                            .analysis(a -> a
-                                    .filter("vietnamese_stop", filterBuilder -> 
-                                        filterBuilder.definition(TokenFilterDefinition.of(def -> 
-                                            def.stop(stop -> 
-                                                stop.stopwords("_vietnamese_")
-                                            )
-                                        ))
-                                    )
-                                    .analyzer("vietnamese_analyzer", an -> an
-                                            .custom(ca -> ca
-                                                    .tokenizer("standard")
-                                                    .filter("lowercase", "asciifolding", "vietnamese_stop")
-                                            )
-                                    )
-                            )
-                    )
-
-
-                    .mappings(m -> m
-                            .properties("id", p -> p.keyword(k -> k))
-                            .properties("name", p -> p.text(txt -> txt.analyzer("vietnamese_analyzer")))
-                            .properties("description", p -> p.text(txt -> txt.analyzer("vietnamese_analyzer")))
-                            .properties("price", p -> p.double_(d -> d))
-                            .properties("stockQuantity", p -> p.integer(i -> i))
-                            .properties("imageUrl", p -> p.keyword(k -> k))
-                            .properties("categoryId", p -> p.long_(l -> l))
-                            .properties("categoryName", p -> p.keyword(k -> k))
-                            .properties("active", p -> p.boolean_(b -> b))
-                            .properties("createdAt", p -> p.date(d -> d))
-                            .properties("updatedAt", p -> p.date(d -> d))
-                            .properties("attributes", p -> p.nested(n -> n
-                                    .properties("name", np -> np.keyword(k -> k))
-                                    .properties("value", np -> np.keyword(k -> k))
-                                    .properties("displayName", np -> np.text(t -> t.analyzer("vietnamese_analyzer")))
-                                    .properties("displayValue", np -> np.text(t -> t.analyzer("vietnamese_analyzer")))
-                            ))
-                            .properties("originalPrice", p -> p.double_(d -> d))
-                            .properties("discountPercent", p -> p.double_(d -> d))
-                            .properties("inStock", p -> p.boolean_(b -> b))
-                            .properties("images", p -> p.object(o -> o))
-                            .properties("rating", p -> p.float_(f -> f))
-                            .properties("reviewCount", p -> p.integer(i -> i))
-                            .properties("soldCount", p -> p.integer(i -> i))
-                            .properties("tags", p -> p.keyword(k -> k))
-                            .properties("nameSuggest", p -> p.completion(comp -> comp.analyzer("vietnamese_analyzer")))
-                    )
-                    .aliases(aliases)
-            );
-
+                    .aliases(alias, a -> a.isWriteIndex(true)));
             log.info("Index created: {}, acknowledged: {}", indexName, response.acknowledged());
         } else {
-            log.info("Elasticsearch index already exists: {}", indexName);
+            log.info("Elasticsearch alias already exists: {}", alias);
         }
+        productIndexExists.set(true);
+    }
+
+    /**
+     * Index theo người bán dùng cùng settings/mapping với index chính nhưng bắt buộc có _routing,
+     * nên mọi thao tác ghi thiếu sellerId bị từ chối thay vì rơi vào shard ngẫu nhiên.
+     * Index này không đi theo blue/green: thay đổi mapping cần xóa và backfill lại.
+     */
+    @CircuitBreaker(name = "elasticsearch")
+    private void createSellerIndexIfNotExists() throws IOException {
+        var indexSettings = elasticsearchConfig.getIndexSettings().getSellerProducts();
+        String alias = indexSettings.getAlias();
+        boolean exists = client.indices().existsAlias(a -> a.name(alias)).value();
+
+        if (!exists) {
+            log.info("Creating seller-routed index {} behind alias {}", indexSettings.getName(), alias);
+            CreateIndexResponse response = client.indices().create(c -> c
+                    .index(indexSettings.getName())
+                    .settings(s -> productIndexSettings(s, indexSettings))
+                    .mappings(m -> productMappings(m.routing(r -> r.required(true))))
+                    .aliases(alias, a -> a.isWriteIndex(true)));
+            log.info("Index created: {}, acknowledged: {}", indexSettings.getName(), response.acknowledged());
+        } else {
+            log.info("Elasticsearch alias already exists: {}", alias);
+        }
+        sellerIndexExists.set(true);
+    }
+
+    /**
+     * Đảm bảo index theo người bán tồn tại, tránh để Elasticsearch tự tạo index không có routing bắt buộc
+     */
+    public void ensureSellerIndexExists() throws IOException {
+        if (!sellerIndexEnabled() || sellerIndexExists.get()) {
+            return;
+        }
+        synchronized (sellerIndexExists) {
+            if (!sellerIndexExists.get()) {
+                createSellerIndexIfNotExists();
+            }
+        }
+    }
+
+    /**
+     * Đảm bảo index sản phẩm tồn tại, chỉ gọi Elasticsearch khi chưa xác nhận được lần nào
+     */
+    public void ensureProductIndexExists() throws IOException {
+        if (productIndexExists.get()) {
+            return;
+        }
+        synchronized (productIndexExists) {
+            if (!productIndexExists.get()) {
+                putProductIndexTemplate();
+                createProductIndexIfNotExists();
+            }
+        }
+    }
+
+    /**
+     * Đánh dấu index cần được kiểm tra lại ở lần ghi tiếp theo (sau khi xóa hoặc tạo lại index)
+     */
+    public void invalidateProductIndexCache() {
+        productIndexExists.set(false);
+    }
+
+    /**
+     * Các index đang nằm sau alias sản phẩm (thường chỉ một)
+     */
+    public List<String> currentProductIndices() throws IOException {
+        String alias = productAlias();
+        if (!client.indices().existsAlias(a -> a.name(alias)).value()) {
+            return List.of();
+        }
+        return List.copyOf(client.indices().getAlias(a -> a.name(alias)).result().keySet());
+    }
+
+    /**
+     * Các index sau alias sản phẩm không được tạo từ template hiện tại: index cũ trước khi dùng template
+     * (ví dụ products) hoặc tạo từ TEMPLATE_VERSION thấp hơn. Mapping và index sort chỉ áp dụng khi tạo index,
+     * nên các index này thiếu subfield, sellerId, eventVersion, ... và cần reindex.
+     */
+    public List<String> outdatedProductIndices() throws IOException {
+        List<String> indices = currentProductIndices();
+        if (indices.isEmpty()) {
+            return List.of();
+        }
+        List<String> outdated = new ArrayList<>();
+        client.indices().getMapping(g -> g.index(indices)).result().forEach((indexName, record) -> {
+            JsonData version = record.mappings().meta().get(TEMPLATE_VERSION_META);
+            if (version == null || version.to(Long.class) < TEMPLATE_VERSION) {
+                outdated.add(indexName);
+            }
+        });
+        return outdated;
+    }
+
+    /**
+     * Tên index phiên bản kế tiếp, ví dụ products_v3 nếu đã có products_v2
+     */
+    public String nextVersionedIndexName() throws IOException {
+        String baseName = elasticsearchConfig.getIndexSettings().getProducts().getName();
+        Pattern versioned = Pattern.compile(Pattern.quote(baseName) + "_v(\\d+)");
+        int maxVersion = 0;
+        Map<String, IndexState> existing = client.indices()
+                .get(g -> g.index(baseName + "_v*").allowNoIndices(true).ignoreUnavailable(true))
+                .result();
+        for (String indexName : existing.keySet()) {
+            Matcher matcher = versioned.matcher(indexName);
+            if (matcher.matches()) {
+                maxVersion = Math.max(maxVersion, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        return baseName + "_v" + (maxVersion + 1);
     }
 
     public void deleteIndex(String indexName) throws IOException {
         DeleteIndexResponse response = client.indices().delete(d -> d.index(indexName));
+        invalidateProductIndexCache();
         log.info("Index deleted: {}, acknowledged: {}", indexName, response.acknowledged());
     }
 
-    public void recreateIndex() throws IOException {
-        String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
-        boolean exists = client.indices().exists(e -> e.index(indexName)).value();
-
-        if (exists) {
-            deleteIndex(indexName);
-        }
+    private ObjectBuilder<IndexSettings> productIndexSettings(IndexSettings.Builder s,
+                                                              ElasticsearchConfig.ProductIndexSettings indexSettings) {
+        return s
+                .numberOfShards(String.valueOf(indexSettings.getShards()))
+                .numberOfReplicas(String.valueOf(indexSettings.getReplicas()))
+                .refreshInterval(builder -> builder.time(
+                        TimeValue.parseTimeValue(indexSettings.getRefreshInterval(), "refreshInterval").toString()
+                ))
+                // Segment được sắp sẵn theo sản phẩm mới nhất: trang "mới nhất" chỉ đọc vài doc đầu mỗi segment
+                // thay vì thu thập mọi hit khớp (cần track_total_hits không chính xác, xem SearchService)
+                .sort(sort -> sort
+                        .field(INDEX_SORT_FIELD)
+                        .order(SegmentSortOrder.Desc)
+                        .missing(SegmentSortMissing.Last))
+                .analysis(a -> a
+                        // Tạo bộ lọc stop token cho tiếng Việt
+                        .filter("vietnamese_stop", filterBuilder ->
+                            filterBuilder.definition(TokenFilterDefinition.of(def ->
+                                def.stop(stop ->
+                                    stop.stopwords("_vietnamese_")
+                                )
+                            ))
+                        )
+                        .analyzer("vietnamese_analyzer", an -> an
+                                .custom(ca -> ca
+                                        .tokenizer("standard")
+                                        .filter("lowercase", "asciifolding", "vietnamese_stop")
+                                )
+                        )
+                        // N-gram cho tìm theo một phần của từ, thay cho wildcard "*text*"
+                        .filter("name_edge_ngram", filterBuilder ->
+                            filterBuilder.definition(TokenFilterDefinition.of(def ->
+                                def.edgeNgram(ng -> ng.minGram(1).maxGram(20))
+                            ))
+                        )
+                        .filter("name_trigram", filterBuilder ->
+                            filterBuilder.definition(TokenFilterDefinition.of(def ->
+                                def.ngram(ng -> ng.minGram(3).maxGram(3))
+                            ))
+                        )
+                        .analyzer("name_prefix_analyzer", an -> an
+                                .custom(ca -> ca
+                                        .tokenizer("standard")
+                                        .filter("lowercase", "asciifolding", "name_edge_ngram")
+                                )
+                        )
+                        .analyzer("name_prefix_search_analyzer", an -> an
+                                .custom(ca -> ca
+                                        .tokenizer("standard")
+                                        .filter("lowercase", "asciifolding")
+                                )
+                        )
+                        .analyzer("name_trigram_analyzer", an -> an
+                                .custom(ca -> ca
+                                        .tokenizer("standard")
+                                        .filter("lowercase", "asciifolding", "name_trigram")
+                                )
+                        )
+                );
+    }
 
-        createProductIndexIfNotExists();
+    private ObjectBuilder<TypeMapping> productMappings(TypeMapping.Builder m) {
+        return m
+                // Index ghi lại phiên bản template tạo ra nó, xem outdatedProductIndices
+                .meta(TEMPLATE_VERSION_META, JsonData.of(TEMPLATE_VERSION))
+                .properties("id", p -> p.keyword(k -> k))
+                .properties("name", p -> p.text(txt -> txt
+                        .analyzer("vietnamese_analyzer")
+                        .fields(NAME_PREFIX_SUBFIELD, f -> f.text(sub -> sub
+                                .analyzer("name_prefix_analyzer")
+                                .searchAnalyzer("name_prefix_search_analyzer")))
+                        .fields(NAME_INFIX_SUBFIELD, f -> f.text(sub -> sub
+                                .analyzer("name_trigram_analyzer")))))
+                .properties("description", p -> p.text(txt -> txt.analyzer("vietnamese_analyzer")))
+                .properties("price", p -> p.double_(d -> d))
+                .properties("stockQuantity", p -> p.integer(i -> i))
+                .properties("imageUrl", p -> p.keyword(k -> k))
+                .properties("categoryId", p -> p.long_(l -> l))
+                .properties("categoryName", p -> p.keyword(k -> k))
+                .properties("sellerId", p -> p.keyword(k -> k))
+                .properties("active", p -> p.boolean_(b -> b))
+                .properties("createdAt", p -> p.date(d -> d))
+                .properties("updatedAt", p -> p.date(d -> d))
+                .properties("attributes", p -> p.nested(n -> n
+                        .properties("name", np -> np.keyword(k -> k))
+                        .properties("value", np -> np.keyword(k -> k))
+                        .properties("displayName", np -> np.text(t -> t.analyzer("vietnamese_analyzer")))
+                        .properties("displayValue", np -> np.text(t -> t.analyzer("vietnamese_analyzer")))
+                ))
+                .properties("originalPrice", p -> p.double_(d -> d))
+                .properties("discountPercent", p -> p.double_(d -> d))
+                .properties("inStock", p -> p.boolean_(b -> b))
+                .properties("images", p -> p.object(o -> o))
+                .properties("rating", p -> p.float_(f -> f))
+                .properties("reviewCount", p -> p.integer(i -> i))
+                .properties("soldCount", p -> p.integer(i -> i))
+                .properties("tags", p -> p.keyword(k -> k))
+                .properties("eventVersion", p -> p.long_(l -> l))
+                .properties("deleted", p -> p.boolean_(b -> b))
+                .properties("nameSuggest", p -> p.completion(comp -> comp
+                        .analyzer("vietnamese_analyzer")
+                        .contexts(ctx -> ctx
+                                .name(ProductDocument.SUGGEST_CATEGORY_CONTEXT)
+                                .type("category"))));
     }
 }
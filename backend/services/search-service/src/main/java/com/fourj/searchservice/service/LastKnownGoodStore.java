@@ -0,0 +1,135 @@
+package com.fourj.searchservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fourj.searchservice.dto.SearchRequest;
+import com.fourj.searchservice.dto.SearchResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Kết quả thành công gần nhất của mỗi truy vấn (theo fingerprint đã chuẩn hóa), dùng khi Elasticsearch
+ * không khả dụng để người dùng thấy kết quả hơi cũ thay vì trang trống.
+ * Kết quả được lưu dạng JSON nén gzip, giới hạn theo tổng số byte; các truy vấn đã trả bản cũ
+ * được ghi lại để làm mới khi Elasticsearch hoạt động trở lại.
+ */
+@Component
+@Slf4j
+public class LastKnownGoodStore {
+
+    private final ObjectMapper objectMapper;
+    private final SearchResultCache searchResultCache;
+    private final Cache<String, byte[]> results;
+    private final Map<String, SearchRequest> pendingRevalidation = new ConcurrentHashMap<>();
+    private final int maxPendingRevalidations;
+    private final Counter staleServed;
+
+    public LastKnownGoodStore(ObjectMapper objectMapper,
+                              SearchResultCache searchResultCache,
+                              MeterRegistry meterRegistry,
+                              @Value("${search-fallback.max-bytes:67108864}") long maxBytes,
+                              @Value("${search-fallback.max-age:86400}") long maxAgeSeconds,
+                              @Value("${search-fallback.max-pending-revalidations:500}") int maxPendingRevalidations) {
+        this.objectMapper = objectMapper;
+        this.searchResultCache = searchResultCache;
+        this.maxPendingRevalidations = maxPendingRevalidations;
+        this.results = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, byte[] value) -> key.length() + value.length)
+                .expireAfterWrite(Duration.ofSeconds(maxAgeSeconds))
+                .build();
+        this.staleServed = meterRegistry.counter("search.fallback.stale_served");
+    }
+
+    /**
+     * Lưu kết quả vừa lấy được từ Elasticsearch
+     */
+    public void remember(SearchRequest request, SearchResponse response) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(bytes)) {
+                objectMapper.writeValue(out, response);
+            }
+            results.put(searchResultCache.fingerprint(request), bytes.toByteArray());
+        } catch (IOException e) {
+            log.debug("Could not store last known good result: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Bản lưu gần nhất của truy vấn, đánh dấu stale, hoặc null nếu chưa từng có.
+     * Truy vấn được đưa vào danh sách chờ làm mới.
+     */
+    public SearchResponse recall(SearchRequest request) {
+        String fingerprint = searchResultCache.fingerprint(request);
+        byte[] compressed = results.getIfPresent(fingerprint);
+        if (compressed == null) {
+            return null;
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            SearchResponse response = objectMapper.readValue(in, SearchResponse.class);
+            response.setStale(true);
+            if (pendingRevalidation.size() < maxPendingRevalidations) {
+                pendingRevalidation.putIfAbsent(fingerprint, request);
+            }
+            staleServed.increment();
+            return response;
+        } catch (IOException e) {
+            log.warn("Could not read last known good result: {}", e.getMessage());
+            results.invalidate(fingerprint);
+            return null;
+        }
+    }
+
+    public boolean hasPendingRevalidations() {
+        return !pendingRevalidation.isEmpty();
+    }
+
+    /**
+     * Lấy và xóa các truy vấn đã trả bản cũ
+     */
+    public List<SearchRequest> drainPendingRevalidations() {
+        List<SearchRequest> requests = new ArrayList<>();
+        pendingRevalidation.keySet().forEach(fingerprint -> {
+            SearchRequest request = pendingRevalidation.remove(fingerprint);
+            if (request != null) {
+                requests.add(request);
+            }
+        });
+        return requests;
+    }
+
+    /**
+     * Đưa lại các truy vấn chưa làm mới được vào danh sách chờ
+     */
+    public void requeue(Collection<SearchRequest> requests) {
+        for (SearchRequest request : requests) {
+            if (pendingRevalidation.size() >= maxPendingRevalidations) {
+                break;
+            }
+            pendingRevalidation.putIfAbsent(searchResultCache.fingerprint(request), request);
+        }
+    }
+
+    public long estimatedSize() {
+        return results.estimatedSize();
+    }
+}
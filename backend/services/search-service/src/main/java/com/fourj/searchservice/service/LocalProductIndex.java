@@ -0,0 +1,567 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.fourj.searchservice.config.ElasticsearchConfig;
+import com.fourj.searchservice.document.ProductDocument;
+import com.fourj.searchservice.dto.ProductIndexDto;
+import com.fourj.searchservice.dto.SearchRequest;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Index sản phẩm cục bộ cho chế độ suy giảm: khi circuit breaker elasticsearch mở, tìm kiếm theo từ khóa,
+ * danh mục, khoảng giá và các cách sắp xếp cơ bản vẫn được trả lời từ instance này.
+ * Văn bản được phân tích giống vietnamese_analyzer (tách từ, chữ thường, bỏ dấu), từ cuối của query
+ * khớp theo tiền tố. Điểm là tổng idf * trọng số trường (name 5, categoryName 3, description 2) như multi_match.
+ * Dữ liệu được cập nhật từ cùng luồng sự kiện sản phẩm và lưu ra file, lần khởi động sau map file thay vì quét lại index.
+ */
+@Component
+@Slf4j
+public class LocalProductIndex {
+
+    private static final int FILE_MAGIC = 0x464A4C50; // "FJLP"
+    private static final int FILE_VERSION = 1;
+    private static final int BOOTSTRAP_PAGE_SIZE = 1000;
+    // Số term tối đa mà từ cuối của query được mở rộng theo tiền tố
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+    private static final float NAME_WEIGHT = 5f;
+    private static final float CATEGORY_WEIGHT = 3f;
+    private static final float DESCRIPTION_WEIGHT = 2f;
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final ElasticsearchClient client;
+    private final ElasticsearchConfig elasticsearchConfig;
+    private final boolean enabled;
+    private final Path snapshotPath;
+    private final long rebuildIntervalMs;
+    private final long snapshotIntervalMs;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // eventVersion mới nhất đã áp dụng cho mỗi sản phẩm, kể cả sản phẩm đã xóa (tombstone)
+    private final Map<String, Long> appliedVersions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "local-product-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile boolean ready = false;
+    private volatile boolean dirty = false;
+    private volatile boolean snapshotStale = false;
+    private long lastSnapshotWrite = 0;
+
+    public LocalProductIndex(ElasticsearchClient client,
+                             ElasticsearchConfig elasticsearchConfig,
+                             @Value("${degraded-search.local-index.enabled:false}") boolean enabled,
+                             @Value("${degraded-search.local-index.path:data/products-local.idx}") String snapshotPath,
+                             @Value("${degraded-search.local-index.rebuild-interval-ms:5000}") long rebuildIntervalMs,
+                             @Value("${degraded-search.local-index.snapshot-interval-ms:60000}") long snapshotIntervalMs) {
+        this.client = client;
+        this.elasticsearchConfig = elasticsearchConfig;
+        this.enabled = enabled;
+        this.snapshotPath = Paths.get(snapshotPath);
+        this.rebuildIntervalMs = rebuildIntervalMs;
+        this.snapshotIntervalMs = snapshotIntervalMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (Files.exists(snapshotPath)) {
+            try {
+                loadSnapshot();
+                ready = true;
+                log.info("Loaded {} products for degraded-mode search from {}", entries.size(), snapshotPath);
+            } catch (Exception e) {
+                log.warn("Không đọc được file index cục bộ {}, sẽ dựng lại từ Elasticsearch: {}", snapshotPath, e.getMessage());
+                entries.clear();
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::maintain, 0, rebuildIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (ready && (dirty || snapshotStale)) {
+            try {
+                writeSnapshot(new ArrayList<>(entries.values()));
+            } catch (IOException e) {
+                log.warn("Không thể lưu index sản phẩm cục bộ: {}", e.getMessage());
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * Cập nhật theo lô sự kiện đã được index, giá trị null nghĩa là sản phẩm đã bị xóa
+     */
+    public void apply(Map<String, ProductDocument> documents) {
+        if (!enabled || documents.isEmpty()) {
+            return;
+        }
+        documents.forEach((id, document) -> {
+            Long version = document != null ? document.getEventVersion() : null;
+            if (version == null) {
+                // Dữ liệu không có version (backfill, API quản trị) không ghi đè trạng thái do sự kiện có version tạo ra
+                if (document == null || !appliedVersions.containsKey(id)) {
+                    applyEntry(id, document);
+                }
+                return;
+            }
+            // Các consumer chạy song song có thể gọi apply với trạng thái cũ sau trạng thái mới,
+            // cập nhật trong compute để kiểm tra version và ghi entry là một bước với mỗi sản phẩm
+            appliedVersions.compute(id, (key, applied) -> {
+                if (applied != null && applied > version) {
+                    return applied;
+                }
+                applyEntry(id, document);
+                return version;
+            });
+        });
+        dirty = true;
+    }
+
+    private void applyEntry(String id, ProductDocument document) {
+        if (document == null || !document.isActive() || !StringUtils.hasText(document.getName())) {
+            entries.remove(id);
+        } else {
+            entries.put(id, Entry.of(id, document));
+        }
+    }
+
+    /**
+     * Trả lời request từ index cục bộ, hoặc null nếu index chưa sẵn sàng hay request dùng
+     * bộ lọc không hỗ trợ (thương hiệu, thuộc tính). Kết quả không có facet và highlight.
+     */
+    public com.fourj.searchservice.dto.SearchResponse search(SearchRequest request) {
+        if (!isReady() || StringUtils.hasText(request.getBrand())
+                || (request.getAttributes() != null && !request.getAttributes().isEmpty())) {
+            return null;
+        }
+        Instant start = Instant.now();
+        Snapshot current = snapshot;
+
+        float[] scores = score(current, tokenize(request.getQuery()));
+        Set<String> categories = request.getCategories() == null || request.getCategories().isEmpty()
+                ? null
+                : new HashSet<>(request.getCategories());
+        SearchRequest.PriceRange priceRange = request.getPriceRange();
+        double minPrice = priceRange != null && priceRange.getMin() != null ? priceRange.getMin().doubleValue() : Double.NEGATIVE_INFINITY;
+        double maxPrice = priceRange != null && priceRange.getMax() != null ? priceRange.getMax().doubleValue() : Double.POSITIVE_INFINITY;
+
+        List<Integer> matches = new ArrayList<>();
+        for (int doc = 0; doc < current.entries.length; doc++) {
+            if (scores != null && scores[doc] <= 0) {
+                continue;
+            }
+            Entry entry = current.entries[doc];
+            if (categories != null && !categories.contains(entry.categoryName)) {
+                continue;
+            }
+            double price = entry.price != null ? entry.price.doubleValue() : 0;
+            if (price < minPrice || price > maxPrice) {
+                continue;
+            }
+            matches.add(doc);
+        }
+        matches.sort(comparator(request.getSortOption(), current, scores));
+
+        int from = Math.min(request.getFrom(), matches.size());
+        int to = Math.min(from + request.getSize(), matches.size());
+        List<ProductIndexDto> products = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            products.add(current.entries[matches.get(i)].toDto());
+        }
+
+        return com.fourj.searchservice.dto.SearchResponse.builder()
+                .totalHits(matches.size())
+                .totalHitsRelation("eq")
+                .products(products)
+                .page(request.getSize() > 0 ? request.getFrom() / request.getSize() : 0)
+                .size(request.getSize())
+                .facets(Collections.emptyMap())
+                .searchTime(Duration.between(start, Instant.now()).toMillis() + "ms")
+                .degraded(true)
+                .build();
+    }
+
+    /**
+     * Điểm của mọi document, null nếu query rỗng (mọi document đều khớp)
+     */
+    private static float[] score(Snapshot current, List<String> tokens) {
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        float[] scores = new float[current.entries.length];
+        int documentCount = Math.max(1, current.entries.length);
+        for (int t = 0; t < tokens.size(); t++) {
+            String token = tokens.get(t);
+            int index = Arrays.binarySearch(current.terms, token);
+            if (t < tokens.size() - 1) {
+                if (index >= 0) {
+                    addPostings(current, index, documentCount, scores);
+                }
+                continue;
+            }
+            // Từ cuối khớp theo tiền tố để trả lời được query đang gõ dở
+            if (index < 0) {
+                index = -index - 1;
+            }
+            for (int expanded = 0; index < current.terms.length && expanded < MAX_PREFIX_EXPANSIONS; index++, expanded++) {
+                if (!current.terms[index].startsWith(token)) {
+                    break;
+                }
+                addPostings(current, index, documentCount, scores);
+            }
+        }
+        return scores;
+    }
+
+    private static void addPostings(Snapshot current, int termIndex, int documentCount, float[] scores) {
+        int[] docs = current.postingDocs[termIndex];
+        float[] weights = current.postingWeights[termIndex];
+        float idf = (float) Math.log(1 + (double) documentCount / docs.length);
+        for (int i = 0; i < docs.length; i++) {
+            scores[docs[i]] += idf * weights[i];
+        }
+    }
+
+    private static Comparator<Integer> comparator(SearchRequest.SortOption sortOption, Snapshot current, float[] scores) {
+        Entry[] docs = current.entries;
+        Comparator<Integer> byScore = scores == null
+                ? (a, b) -> 0
+                : (a, b) -> Float.compare(scores[b], scores[a]);
+        Comparator<Integer> byId = Comparator.comparing(doc -> docs[doc].id);
+        Comparator<Integer> byPrice = Comparator.comparing(doc -> docs[doc].price, Comparator.nullsLast(Comparator.naturalOrder()));
+        if (sortOption == null) {
+            return byScore.thenComparing(byId);
+        }
+        return switch (sortOption) {
+            case PRICE_ASC -> byPrice.thenComparing(byId);
+            case PRICE_DESC -> byPrice.reversed().thenComparing(byId);
+            case NEWEST -> Comparator.<Integer>comparingLong(doc -> docs[doc].createdAt).reversed().thenComparing(byId);
+            case BEST_SELLING -> Comparator.<Integer>comparingInt(doc -> docs[doc].soldCount == null ? -1 : docs[doc].soldCount)
+                    .reversed().thenComparing(byScore).thenComparing(byId);
+            case HIGHEST_RATED -> Comparator.<Integer>comparingDouble(doc -> docs[doc].rating == null ? -1 : docs[doc].rating)
+                    .reversed().thenComparing(byScore).thenComparing(byId);
+            default -> byScore.thenComparing(byId);
+        };
+    }
+
+    private void maintain() {
+        try {
+            if (!ready) {
+                bootstrapFromIndex();
+                ready = true;
+                dirty = true;
+            }
+            if (dirty) {
+                dirty = false;
+                rebuild();
+                snapshotStale = true;
+            }
+            // Ghi file thưa hơn dựng lại vì file gồm cả mô tả sản phẩm
+            if (snapshotStale && System.currentTimeMillis() - lastSnapshotWrite >= snapshotIntervalMs) {
+                snapshotStale = false;
+                lastSnapshotWrite = System.currentTimeMillis();
+                writeSnapshot(Arrays.asList(snapshot.entries));
+            }
+        } catch (Exception e) {
+            log.warn("Không thể cập nhật index sản phẩm cục bộ: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Quét các sản phẩm đang bán trong index theo search_after.
+     * Sự kiện đến trong lúc quét mới hơn dữ liệu trong index nên không bị ghi đè.
+     */
+    private void bootstrapFromIndex() throws IOException {
+        String indexName = elasticsearchConfig.getIndexSettings().getProducts().getAlias();
+        List<FieldValue> searchAfter = null;
+        int loaded = 0;
+        while (true) {
+            List<FieldValue> after = searchAfter;
+            SearchResponse<ProductDocument> response = client.search(s -> {
+                s.index(indexName)
+                        .size(BOOTSTRAP_PAGE_SIZE)
+                        .query(q -> q.term(t -> t.field("active").value(true)))
+                        .source(src -> src.filter(f -> f.includes("name", "description", "price", "imageUrl",
+                                "categoryName", "active", "inStock", "rating", "soldCount", "createdAt")))
+                        .sort(so -> so.field(f -> f.field("id").order(SortOrder.Asc)));
+                if (after != null) {
+                    s.searchAfter(after);
+                }
+                return s;
+            }, ProductDocument.class);
+
+            List<Hit<ProductDocument>> hits = response.hits().hits();
+            for (Hit<ProductDocument> hit : hits) {
+                ProductDocument product = hit.source();
+                // Sản phẩm đã nhận sự kiện trong lúc dựng giữ trạng thái từ sự kiện
+                if (product != null && StringUtils.hasText(product.getName()) && !appliedVersions.containsKey(hit.id())) {
+                    entries.putIfAbsent(hit.id(), Entry.of(hit.id(), product));
+                    loaded++;
+                }
+            }
+            if (hits.size() < BOOTSTRAP_PAGE_SIZE) {
+                break;
+            }
+            searchAfter = hits.get(hits.size() - 1).sort();
+        }
+        log.info("Loaded {} products for degraded-mode search from index {}", loaded, indexName);
+    }
+
+    /**
+     * Dựng term dictionary đã sắp xếp và posting list (document, trọng số trường cao nhất) cho mỗi term
+     */
+    private void rebuild() {
+        Entry[] docs = entries.values().toArray(new Entry[0]);
+        Map<String, PostingsBuilder> postings = new HashMap<>();
+        for (int doc = 0; doc < docs.length; doc++) {
+            Map<String, Float> termWeights = new HashMap<>();
+            addTerms(termWeights, docs[doc].name, NAME_WEIGHT);
+            addTerms(termWeights, docs[doc].categoryName, CATEGORY_WEIGHT);
+            addTerms(termWeights, docs[doc].description, DESCRIPTION_WEIGHT);
+            int current = doc;
+            termWeights.forEach((term, weight) ->
+                    postings.computeIfAbsent(term, k -> new PostingsBuilder()).add(current, weight));
+        }
+
+        String[] terms = postings.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        int[][] postingDocs = new int[terms.length][];
+        float[][] postingWeights = new float[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            PostingsBuilder builder = postings.get(terms[i]);
+            postingDocs[i] = Arrays.copyOf(builder.docs, builder.size);
+            postingWeights[i] = Arrays.copyOf(builder.weights, builder.size);
+        }
+        snapshot = new Snapshot(docs, terms, postingDocs, postingWeights);
+    }
+
+    private static void addTerms(Map<String, Float> termWeights, String text, float weight) {
+        for (String token : tokenize(text)) {
+            termWeights.merge(token, weight, Math::max);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        String normalized = ProductNameIndex.normalize(text);
+        if (normalized.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(normalized)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Ghi file tạm rồi đổi tên để lần khởi động sau không đọc phải file ghi dở
+     */
+    private void writeSnapshot(List<Entry> docs) throws IOException {
+        Path parent = snapshotPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tempFile = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (OutputStream file = Files.newOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(docs.size());
+            for (Entry entry : docs) {
+                writeString(out, entry.id);
+                writeString(out, entry.name);
+                writeString(out, entry.description);
+                writeString(out, entry.categoryName);
+                writeString(out, entry.imageUrl);
+                writeString(out, entry.price != null ? entry.price.toPlainString() : null);
+                out.writeByte(entry.inStock == null ? -1 : (entry.inStock ? 1 : 0));
+                out.writeFloat(entry.rating == null ? Float.NaN : entry.rating);
+                out.writeInt(entry.soldCount == null ? -1 : entry.soldCount);
+                out.writeLong(entry.createdAt);
+            }
+        }
+        Files.move(tempFile, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadSnapshot() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                throw new IOException("Unsupported snapshot format");
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String id = readString(buffer);
+                String name = readString(buffer);
+                String description = readString(buffer);
+                String categoryName = readString(buffer);
+                String imageUrl = readString(buffer);
+                String price = readString(buffer);
+                byte inStock = buffer.get();
+                float rating = buffer.getFloat();
+                int soldCount = buffer.getInt();
+                long createdAt = buffer.getLong();
+                entries.put(id, new Entry(id, name, description, categoryName, imageUrl,
+                        price != null ? new BigDecimal(price) : null,
+                        inStock < 0 ? null : inStock == 1,
+                        Float.isNaN(rating) ? null : rating,
+                        soldCount < 0 ? null : soldCount,
+                        createdAt));
+            }
+        }
+        rebuild();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final String name;
+        private final String description;
+        private final String categoryName;
+        private final String imageUrl;
+        private final BigDecimal price;
+        private final Boolean inStock;
+        private final Float rating;
+        private final Integer soldCount;
+        private final long createdAt;
+
+        private Entry(String id, String name, String description, String categoryName, String imageUrl,
+                      BigDecimal price, Boolean inStock, Float rating, Integer soldCount, long createdAt) {
+            this.id = id;
+            this.name = name;
+            this.description = description;
+            this.categoryName = categoryName;
+            this.imageUrl = imageUrl;
+            this.price = price;
+            this.inStock = inStock;
+            this.rating = rating;
+            this.soldCount = soldCount;
+            this.createdAt = createdAt;
+        }
+
+        private static Entry of(String id, ProductDocument document) {
+            return new Entry(id, document.getName(), document.getDescription(), document.getCategoryName(),
+                    document.getImageUrl(), document.getPrice(), document.getInStock(), document.getRating(),
+                    document.getSoldCount(),
+                    document.getCreatedAt() != null ? document.getCreatedAt().toInstant(ZoneOffset.UTC).toEpochMilli() : 0);
+        }
+
+        private ProductIndexDto toDto() {
+            return ProductIndexDto.builder()
+                    .id(id)
+                    .name(name)
+                    .description(description)
+                    .price(price)
+                    .imageUrl(imageUrl)
+                    .categoryName(categoryName)
+                    .active(true)
+                    .inStock(inStock)
+                    .rating(rating)
+                    .soldCount(soldCount)
+                    .build();
+        }
+    }
+
+    private static final class PostingsBuilder {
+        private int[] docs = new int[4];
+        private float[] weights = new float[4];
+        private int size;
+
+        private void add(int doc, float weight) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = doc;
+            weights[size] = weight;
+            size++;
+        }
+    }
+
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(new Entry[0], new String[0], new int[0][], new float[0][]);
+
+        private final Entry[] entries;
+        private final String[] terms;
+        private final int[][] postingDocs;
+        private final float[][] postingWeights;
+
+        private Snapshot(Entry[] entries, String[] terms, int[][] postingDocs, float[][] postingWeights) {
+            this.entries = entries;
+            this.terms = terms;
+            this.postingDocs = postingDocs;
+            this.postingWeights = postingWeights;
+        }
+    }
+}
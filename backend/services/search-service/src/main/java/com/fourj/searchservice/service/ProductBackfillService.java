@@ -0,0 +1,420 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fourj.searchservice.config.ElasticsearchConfig;
+import com.fourj.searchservice.document.ProductDocument;
+import com.fourj.searchservice.exception.SearchServiceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nạp lại toàn bộ catalog từ product-service vào Elasticsearch.
+ * Khoảng id [minId, maxId] được chia thành nhiều slice đọc song song, mỗi slice phân trang theo khóa
+ * (id > id cuối của trang trước) và đẩy vào bulk ingester dùng chung, nên số request tới product-service
+ * bị giới hạn bởi số slice còn tải lên Elasticsearch bị giới hạn bởi max-concurrent-requests của ingester.
+ * Id cuối của trang đã được Elasticsearch xác nhận được lưu làm checkpoint trong Redis để chạy tiếp sau lỗi.
+ */
+@Service
+@Slf4j
+public class ProductBackfillService {
+
+    private static final String CHECKPOINT_KEY = "search:backfill:checkpoint";
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final ProductCatalogClient catalogClient;
+    private final ProductDocumentConverter documentConverter;
+    private final ProductBulkIngester bulkIngester;
+    private final IndexManagementService indexManagementService;
+    private final ProductNameIndex productNameIndex;
+    private final LocalProductIndex localProductIndex;
+    private final SearchResultCache searchResultCache;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ElasticsearchConfig elasticsearchConfig;
+    private final Counter documentCounter;
+    private final int sliceCount;
+    private final int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean stopRequested = new AtomicBoolean(false);
+    private final AtomicLong documents = new AtomicLong();
+    private volatile List<Slice> slices = List.of();
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String state = "IDLE";
+    private volatile ExecutorService executor;
+    // Header Authorization của người khởi chạy, dùng để gọi API export dành cho admin của product-service
+    private volatile String authorization;
+
+    public ProductBackfillService(ProductCatalogClient catalogClient,
+                                  ProductDocumentConverter documentConverter,
+                                  ProductBulkIngester bulkIngester,
+                                  IndexManagementService indexManagementService,
+                                  ProductNameIndex productNameIndex,
+                                  LocalProductIndex localProductIndex,
+                                  SearchResultCache searchResultCache,
+                                  RedisTemplate<String, Object> redisTemplate,
+                                  ElasticsearchConfig elasticsearchConfig,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${backfill.slices:8}") int sliceCount,
+                                  @Value("${backfill.page-size:500}") int pageSize) {
+        this.catalogClient = catalogClient;
+        this.documentConverter = documentConverter;
+        this.bulkIngester = bulkIngester;
+        this.indexManagementService = indexManagementService;
+        this.productNameIndex = productNameIndex;
+        this.localProductIndex = localProductIndex;
+        this.searchResultCache = searchResultCache;
+        this.redisTemplate = redisTemplate;
+        this.elasticsearchConfig = elasticsearchConfig;
+        this.documentCounter = meterRegistry.counter("search.backfill.documents");
+        this.sliceCount = Math.max(1, sliceCount);
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopRequested.set(true);
+        ExecutorService current = executor;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * Bắt đầu backfill ở background
+     *
+     * @param resume        true để chạy tiếp từ checkpoint của lần trước (nếu có)
+     * @param authorization header Authorization (token admin) chuyển tiếp tới product-service
+     */
+    public Map<String, Object> start(boolean resume, String authorization) {
+        if (!running.compareAndSet(false, true)) {
+            throw new SearchServiceException("Backfill đang chạy", "BACKFILL_IN_PROGRESS", 409);
+        }
+        try {
+            this.authorization = authorization;
+            indexManagementService.ensureProductIndexExists();
+            indexManagementService.ensureSellerIndexExists();
+            List<Slice> planned = resume ? loadCheckpoint() : List.of();
+            if (planned.isEmpty()) {
+                planned = planSlices();
+                saveCheckpoint(planned);
+            } else {
+                log.info("Resuming backfill from checkpoint with {} slices", planned.size());
+            }
+
+            slices = planned;
+            documents.set(0);
+            stopRequested.set(false);
+            startedAt = Instant.now();
+            finishedAt = null;
+            state = "RUNNING";
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, planned.size()), new SliceThreadFactory());
+            executor = pool;
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (Slice slice : planned) {
+                if (!slice.done) {
+                    workers.add(CompletableFuture.runAsync(() -> runSlice(slice), pool));
+                }
+            }
+            CompletableFuture.allOf(workers.toArray(new CompletableFuture[0]))
+                    .whenComplete((ignored, error) -> finish(pool, error));
+            return getStatus();
+        } catch (Exception e) {
+            running.set(false);
+            if (e instanceof SearchServiceException searchException) {
+                throw searchException;
+            }
+            throw new SearchServiceException("Không thể bắt đầu backfill: " + e.getMessage(),
+                    "BACKFILL_START_FAILED", 502, e);
+        }
+    }
+
+    /**
+     * Dừng sau trang đang xử lý, checkpoint được giữ lại để chạy tiếp
+     */
+    public void stop() {
+        stopRequested.set(true);
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("state", state);
+        status.put("documents", documents.get());
+        Instant start = startedAt;
+        if (start != null) {
+            Instant end = finishedAt != null ? finishedAt : Instant.now();
+            double seconds = Math.max(1, Duration.between(start, end).toMillis()) / 1000.0;
+            status.put("startedAt", start.toString());
+            status.put("elapsedSeconds", seconds);
+            status.put("documentsPerSecond", Math.round(documents.get() / seconds));
+        }
+        List<Map<String, Object>> sliceStatus = new ArrayList<>();
+        for (Slice slice : slices) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("slice", slice.index);
+            entry.put("fromId", slice.fromId);
+            entry.put("toId", slice.toId);
+            entry.put("checkpointId", slice.checkpointId);
+            entry.put("progress", slice.progress());
+            entry.put("done", slice.done);
+            if (slice.error != null) {
+                entry.put("error", slice.error);
+            }
+            sliceStatus.add(entry);
+        }
+        status.put("slices", sliceStatus);
+        return status;
+    }
+
+    private void runSlice(Slice slice) {
+        long cursor = slice.checkpointId;
+        CompletableFuture<Void> inFlight = null;
+        List<BulkOperation> inFlightOperations = null;
+        long inFlightLastId = cursor;
+        try {
+            while (!stopRequested.get()) {
+                JsonNode page = fetchPage(cursor, slice.toId);
+                if (page == null || !page.isArray() || page.isEmpty()) {
+                    break;
+                }
+
+                Map<String, ProductDocument> converted = new LinkedHashMap<>();
+                for (JsonNode node : page) {
+                    ProductDocument document = documentConverter.convert(node);
+                    if (document != null) {
+                        converted.put(document.getId(), document);
+                    }
+                }
+                // Trang export không có version: sản phẩm đã được sự kiện cập nhật hoặc xóa giữ nguyên trạng thái đó
+                Map<String, ProductDocument> changed = bulkIngester.withoutVersioned(converted);
+                List<BulkOperation> operations = new ArrayList<>(changed.size());
+                changed.values().forEach(document -> operations.add(bulkIngester.indexOperation(document)));
+                operations.addAll(bulkIngester.sellerOperations(changed));
+                long lastId = page.get(page.size() - 1).path("id").asLong();
+
+                // Chỉ giữ một trang chờ xác nhận cho mỗi slice: đọc trang kế trong lúc Elasticsearch ghi trang trước
+                if (inFlight != null) {
+                    awaitAck(inFlight, inFlightOperations);
+                    checkpoint(slice, inFlightLastId);
+                }
+                inFlight = bulkIngester.submit(operations);
+                inFlightOperations = operations;
+                inFlightLastId = lastId;
+                productNameIndex.apply(changed);
+                localProductIndex.apply(changed);
+                documents.addAndGet(changed.size());
+                documentCounter.increment(changed.size());
+
+                cursor = lastId;
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+            if (inFlight != null) {
+                awaitAck(inFlight, inFlightOperations);
+                checkpoint(slice, inFlightLastId);
+            }
+            if (!stopRequested.get()) {
+                slice.done = true;
+                checkpoint(slice, slice.checkpointId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            slice.error = "interrupted";
+        } catch (Exception e) {
+            log.error("Backfill slice {} failed at id {}", slice.index, slice.checkpointId, e);
+            slice.error = e.getMessage();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JsonNode fetchPage(long afterId, long toId) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return catalogClient.fetchPage(afterId, toId, pageSize, authorization);
+            } catch (Exception e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Fetching products after id {} failed (attempt {}): {}", afterId, attempt, e.getMessage());
+                TimeUnit.MILLISECONDS.sleep(500L * attempt);
+            }
+        }
+    }
+
+    /**
+     * Chờ Elasticsearch xác nhận, gửi lại cả trang nếu bị từ chối vì lỗi tạm thời
+     */
+    private void awaitAck(CompletableFuture<Void> future, List<BulkOperation> operations) throws Exception {
+        long timeoutMs = elasticsearchConfig.getBulk().getAckTimeoutMs();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                future.get(timeoutMs, TimeUnit.MILLISECONDS);
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Bulk write of {} products failed (attempt {}), retrying", operations.size(), attempt);
+                TimeUnit.MILLISECONDS.sleep(1000L * attempt);
+                future = bulkIngester.submit(operations);
+            }
+        }
+    }
+
+    private void finish(ExecutorService pool, Throwable error) {
+        pool.shutdown();
+        finishedAt = Instant.now();
+        boolean completed = error == null && slices.stream().allMatch(slice -> slice.done);
+        if (completed) {
+            state = "COMPLETED";
+            deleteCheckpoint();
+        } else {
+            state = stopRequested.get() ? "STOPPED" : "FAILED";
+            saveCheckpoint(slices);
+        }
+        searchResultCache.invalidateAll();
+        log.info("Backfill {}: {} products in {} s", state, documents.get(),
+                Duration.between(startedAt, finishedAt).toSeconds());
+        running.set(false);
+    }
+
+    private List<Slice> planSlices() {
+        JsonNode bounds = catalogClient.fetchBounds(authorization);
+        if (bounds == null || bounds.path("minId").isNull() || bounds.path("maxId").isNull()) {
+            return List.of();
+        }
+        long minId = bounds.path("minId").asLong();
+        long maxId = bounds.path("maxId").asLong();
+        long span = maxId - minId + 1;
+        int count = (int) Math.min(sliceCount, Math.max(1, span / pageSize));
+        long step = (span + count - 1) / count;
+
+        List<Slice> planned = new ArrayList<>(count);
+        long from = minId - 1;
+        for (int i = 0; i < count && from < maxId; i++) {
+            long to = Math.min(maxId, from + step);
+            planned.add(new Slice(i, from, to, from, false));
+            from = to;
+        }
+        log.info("Backfill planned: ids {}..{} in {} slices", minId, maxId, planned.size());
+        return planned;
+    }
+
+    private void checkpoint(Slice slice, long ackedId) {
+        slice.checkpointId = ackedId;
+        try {
+            redisTemplate.opsForHash().put(CHECKPOINT_KEY, String.valueOf(slice.index), slice.encode());
+        } catch (Exception e) {
+            log.debug("Could not persist backfill checkpoint: {}", e.getMessage());
+        }
+    }
+
+    private void saveCheckpoint(List<Slice> planned) {
+        try {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            for (Slice slice : planned) {
+                fields.put(String.valueOf(slice.index), slice.encode());
+            }
+            redisTemplate.delete(CHECKPOINT_KEY);
+            if (!fields.isEmpty()) {
+                redisTemplate.opsForHash().putAll(CHECKPOINT_KEY, fields);
+            }
+        } catch (Exception e) {
+            log.warn("Could not persist backfill checkpoint, resume will not be available: {}", e.getMessage());
+        }
+    }
+
+    private List<Slice> loadCheckpoint() {
+        try {
+            Map<Object, Object> fields = redisTemplate.opsForHash().entries(CHECKPOINT_KEY);
+            List<Slice> loaded = new ArrayList<>();
+            fields.forEach((key, value) -> loaded.add(Slice.decode(Integer.parseInt(key.toString()), value.toString())));
+            loaded.sort((a, b) -> Integer.compare(a.index, b.index));
+            return loaded;
+        } catch (Exception e) {
+            log.warn("Could not read backfill checkpoint, starting over: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    private void deleteCheckpoint() {
+        try {
+            redisTemplate.delete(CHECKPOINT_KEY);
+        } catch (Exception e) {
+            log.debug("Could not delete backfill checkpoint: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Một khoảng id (fromId, toId] và id cuối đã được Elasticsearch xác nhận
+     */
+    private static class Slice {
+        private final int index;
+        private final long fromId;
+        private final long toId;
+        private volatile long checkpointId;
+        private volatile boolean done;
+        private volatile String error;
+
+        Slice(int index, long fromId, long toId, long checkpointId, boolean done) {
+            this.index = index;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.checkpointId = checkpointId;
+            this.done = done;
+        }
+
+        double progress() {
+            if (done || toId <= fromId) {
+                return 1.0;
+            }
+            return Math.min(1.0, (double) (checkpointId - fromId) / (toId - fromId));
+        }
+
+        String encode() {
+            return fromId + ":" + toId + ":" + checkpointId + ":" + done;
+        }
+
+        static Slice decode(int index, String value) {
+            String[] parts = value.split(":");
+            return new Slice(index, Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                    Long.parseLong(parts[2]), Boolean.parseBoolean(parts[3]));
+        }
+    }
+
+    private static class SliceThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "product-backfill-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Refresh;
+import co.elastic.clients.elasticsearch._types.VersionType;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.json.JsonData;
+import com.fourj.searchservice.config.ElasticsearchConfig;
+import com.fourj.searchservice.document.ProductDocument;
+import com.fourj.searchservice.exception.ElasticsearchException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.elasticsearch.core.suggest.Completion;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Gom các thao tác index/xóa từ nhiều lần poll Kafka vào bulk request dùng chung.
+ * Request được gửi khi đạt số operation, kích thước hoặc hết flush interval;
+ * khi số request đang chờ vượt maxConcurrentRequests, lời gọi submit sẽ bị chặn (backpressure).
+ * Mỗi lần submit trả về future hoàn thành khi mọi thao tác của nó đã được Elasticsearch xác nhận.
+ * Thao tác mang eventVersion bị Elasticsearch bỏ qua nếu document đã được ghi bởi sự kiện mới hơn,
+ * nên các lô sự kiện có thể được ghi song song và không theo thứ tự.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductBulkIngester {
+
+    // Tín hiệu được ghi bởi các luồng khác (SalesSignalAggregator, ...), sự kiện sản phẩm không được ghi đè.
+    // Update không hỗ trợ version_type=external nên version được so sánh trong script: document đã có
+    // eventVersion lớn hơn hoặc bằng thì bỏ qua (noop). Document không có version (backfill, API quản trị)
+    // chỉ ghi được lên document chưa có version, không bao giờ thay thế trạng thái của sự kiện hay tombstone.
+    static final String REPLACE_KEEPING_SIGNALS_SCRIPT =
+            "if (ctx._source.eventVersion != null && (params.doc.eventVersion == null"
+            + " || ctx._source.eventVersion >= params.doc.eventVersion)) { ctx.op = 'noop'; } else {"
+            + " def sold = ctx._source.soldCount; def rating = ctx._source.rating; def reviews = ctx._source.reviewCount;"
+            + " ctx._source.clear(); ctx._source.putAll(params.doc);"
+            + " if (sold != null) { ctx._source.soldCount = sold; }"
+            + " if (rating != null) { ctx._source.rating = rating; }"
+            + " if (reviews != null) { ctx._source.reviewCount = reviews; } }";
+
+    // Xóa có version thay document bằng tombstone thay vì xóa hẳn, để sự kiện cũ hơn đến sau không tạo lại sản phẩm
+    static final String TOMBSTONE_SCRIPT =
+            "if (ctx._source.eventVersion != null && ctx._source.eventVersion >= params.doc.eventVersion)"
+            + " { ctx.op = 'noop'; } else { ctx._source.clear(); ctx._source.putAll(params.doc); }";
+
+
+    private final ElasticsearchClient client;
+    private final ElasticsearchConfig elasticsearchConfig;
+    private final IndexManagementService indexManagementService;
+
+    private BulkIngester<PendingBatch> ingester;
+
+    // Các lần submit chưa được xác nhận. Khóa đọc giữ từ lúc đọc migrationTarget tới khi đăng ký batch,
+    // để awaitInFlight biết chắc mọi thao tác ghi trước khi bật ghi kép đã nằm trong danh sách
+    private final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+    private final ReadWriteLock migrationLock = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    public void init() {
+        ElasticsearchConfig.BulkSettings settings = elasticsearchConfig.getBulk();
+        ingester = BulkIngester.of(b -> b
+                .client(client)
+                .maxOperations(settings.getMaxOperations())
+                .maxSize(settings.getMaxSizeBytes())
+                .maxConcurrentRequests(settings.getMaxConcurrentRequests())
+                .flushInterval(settings.getFlushIntervalMs(), TimeUnit.MILLISECONDS)
+                .listener(new AckListener(indexManagementService.sellerIndexEnabled()
+                        ? elasticsearchConfig.getIndexSettings().getSellerProducts().getName() : null)));
+    }
+
+    @PreDestroy
+    public void close() {
+        // Gửi nốt các thao tác còn trong buffer trước khi tắt
+        ingester.close();
+    }
+
+    public ProductDocument prepare(ProductDocument product) {
+        // Chỉ sản phẩm đang bán mới được gợi ý; context danh mục cho phép gợi ý trong một danh mục
+        if (product.isActive() && StringUtils.hasText(product.getName())) {
+            Completion nameSuggest = new Completion(Collections.singletonList(product.getName()));
+            String category = StringUtils.hasText(product.getCategoryName())
+                    ? product.getCategoryName() : ProductDocument.NO_CATEGORY;
+            nameSuggest.setContexts(Map.of(ProductDocument.SUGGEST_CATEGORY_CONTEXT, List.of(category)));
+            product.setNameSuggest(nameSuggest);
+        } else {
+            product.setNameSuggest(null);
+        }
+        // Đảm bảo có giá trị inStock dựa vào stockQuantity
+        if (product.getInStock() == null && product.getStockQuantity() != null) {
+            product.setInStock(product.getStockQuantity() > 0);
+        }
+        return product;
+    }
+
+    /**
+     * Thay toàn bộ document bằng trạng thái mới của sản phẩm nhưng giữ lại các tín hiệu
+     * (soldCount, rating, reviewCount) không đến từ product-service. Sản phẩm chưa có thì được tạo mới.
+     */
+    public BulkOperation indexOperation(ProductDocument product) {
+        ProductDocument document = prepare(product);
+        return BulkOperation.of(op -> op
+                .update(u -> u
+                        .index(indexName())
+                        .id(document.getId())
+                        .retryOnConflict(3)
+                        .action(a -> a
+                                .script(sc -> sc
+                                        .source(REPLACE_KEEPING_SIGNALS_SCRIPT)
+                                        .params("doc", JsonData.of(document)))
+                                .upsert(document))));
+    }
+
+    public BulkOperation deleteOperation(String productId) {
+        return BulkOperation.of(op -> op
+                .delete(del -> del
+                        .index(indexName())
+                        .id(productId)));
+    }
+
+    /**
+     * Xóa theo version: document được thay bằng tombstone (active=false) nếu chưa có sự kiện mới hơn.
+     * Tombstone bị loại khỏi mọi truy vấn bởi filter active và được ProductTombstonePurger dọn sau một thời gian.
+     */
+    public BulkOperation deleteOperation(ProductDocument tombstone) {
+        return BulkOperation.of(op -> op
+                .update(u -> u
+                        .index(indexName())
+                        .id(tombstone.getId())
+                        .retryOnConflict(3)
+                        .action(a -> a
+                                .script(sc -> sc
+                                        .source(TOMBSTONE_SCRIPT)
+                                        .params("doc", JsonData.of(tombstone)))
+                                .upsert(tombstone))));
+    }
+
+    /**
+     * Document đánh dấu sản phẩm đã bị xóa bởi sự kiện có version
+     */
+    public static ProductDocument tombstone(String productId, long version) {
+        return ProductDocument.builder()
+                .id(productId)
+                .active(false)
+                .deleted(true)
+                .eventVersion(version)
+                .updatedAt(LocalDateTime.now(ZoneOffset.UTC))
+                .build();
+    }
+
+    /**
+     * Thao tác cho index theo người bán ứng với trạng thái mới của các sản phẩm (null hoặc tombstone nếu đã bị xóa).
+     * Index này dùng thao tác index/delete thường nên áp dụng được version_type=external_gte theo eventVersion.
+     * sellerId cũ được đọc từ index chính bằng một lần mget trước khi ghi: sản phẩm bị xóa hoặc đổi
+     * người bán cần xóa document ở routing cũ. Các tín hiệu (soldCount, rating, reviewCount) chỉ được
+     * cập nhật trên index chính nên được sao chép từ đó tại thời điểm sản phẩm thay đổi.
+     */
+    public List<BulkOperation> sellerOperations(Map<String, ProductDocument> changes) {
+        if (!indexManagementService.sellerIndexEnabled() || changes.isEmpty()) {
+            return List.of();
+        }
+        return sellerOperations(changes, currentDocuments(changes.keySet()));
+    }
+
+    /**
+     * Như sellerOperations(changes) nhưng dùng trạng thái hiện tại phía gọi đã đọc bằng currentDocuments
+     */
+    public List<BulkOperation> sellerOperations(Map<String, ProductDocument> changes,
+                                                Map<String, ProductDocument> current) {
+        if (!indexManagementService.sellerIndexEnabled() || changes.isEmpty()) {
+            return List.of();
+        }
+        String sellerIndex = indexManagementService.sellerAlias();
+        List<BulkOperation> operations = new ArrayList<>();
+        changes.forEach((productId, product) -> {
+            ProductDocument previous = current.get(productId);
+            String previousSeller = previous != null ? previous.getSellerId() : null;
+            boolean removed = product == null || Boolean.TRUE.equals(product.getDeleted());
+            String seller = removed ? null : product.getSellerId();
+            Long version = product != null ? product.getEventVersion() : null;
+            if (StringUtils.hasText(previousSeller) && !previousSeller.equals(seller)) {
+                operations.add(BulkOperation.of(op -> op
+                        .delete(del -> {
+                            del.index(sellerIndex)
+                                    .id(productId)
+                                    .routing(previousSeller);
+                            if (version != null) {
+                                del.version(version).versionType(VersionType.ExternalGte);
+                            }
+                            return del;
+                        })));
+            }
+            if (StringUtils.hasText(seller)) {
+                ProductDocument document = prepare(product).toBuilder()
+                        .soldCount(previous != null ? previous.getSoldCount() : null)
+                        .rating(previous != null ? previous.getRating() : null)
+                        .reviewCount(previous != null ? previous.getReviewCount() : null)
+                        .build();
+                operations.add(BulkOperation.of(op -> op
+                        .index(idx -> {
+                            idx.index(sellerIndex)
+                                    .id(productId)
+                                    .routing(seller)
+                                    .document(document);
+                            if (version != null) {
+                                idx.version(version).versionType(VersionType.ExternalGte);
+                            }
+                            return idx;
+                        })));
+            }
+        });
+        return operations;
+    }
+
+    /**
+     * Bỏ khỏi một lô không có version các sản phẩm đã được ghi bởi sự kiện có version (kể cả tombstone).
+     * Thao tác trên index chính của chúng đã là noop; lọc trước để index theo người bán (ghi không version)
+     * và các index cục bộ cũng không bị dữ liệu cũ hơn ghi đè.
+     */
+    public Map<String, ProductDocument> withoutVersioned(Map<String, ProductDocument> products) {
+        if (products.isEmpty()) {
+            return products;
+        }
+        Map<String, ProductDocument> current = currentDocuments(products.keySet(), "eventVersion");
+        Map<String, ProductDocument> unversioned = new LinkedHashMap<>();
+        products.forEach((productId, product) -> {
+            ProductDocument existing = current.get(productId);
+            if (existing == null || existing.getEventVersion() == null) {
+                unversioned.put(productId, product);
+            }
+        });
+        return unversioned;
+    }
+
+    /**
+     * Trạng thái hiện tại trên index chính của các sản phẩm sắp được ghi: sellerId và danh mục cũ
+     * cùng các tín hiệu. Sản phẩm chưa có trong index không có trong kết quả.
+     */
+    public Map<String, ProductDocument> currentDocuments(Collection<String> productIds) {
+        if (productIds.isEmpty()) {
+            return Map.of();
+        }
+        return currentDocuments(productIds, "sellerId", "categoryName", "soldCount", "rating", "reviewCount");
+    }
+
+    private Map<String, ProductDocument> currentDocuments(Iterable<String> productIds, String... fields) {
+        List<String> ids = new ArrayList<>();
+        productIds.forEach(ids::add);
+        Map<String, ProductDocument> documents = new HashMap<>();
+        try {
+            MgetResponse<ProductDocument> response = client.mget(m -> m
+                    .index(indexName())
+                    .ids(ids)
+                    .sourceIncludes(List.of(fields)), ProductDocument.class);
+            response.docs().forEach(doc -> {
+                if (doc.isResult() && doc.result().found() && doc.result().source() != null) {
+                    documents.put(doc.result().id(), doc.result().source());
+                }
+            });
+        } catch (Exception e) {
+            // Không biết routing hay danh mục cũ thì có thể để lại document mồ côi hoặc cache cũ, phía gọi xử lý lại cả lô
+            throw new ElasticsearchException("Could not read current state of " + ids.size() + " products", e);
+        }
+        return documents;
+    }
+
+    /**
+     * Đưa các thao tác vào ingester. Future lỗi nếu có thao tác bị từ chối vì lý do tạm thời
+     * (429, 5xx, mất kết nối) để phía gọi có thể xử lý lại cả lô.
+     */
+    public CompletableFuture<Void> submit(List<BulkOperation> operations) {
+        List<BulkOperation> expanded;
+        PendingBatch batch;
+        migrationLock.readLock().lock();
+        try {
+            expanded = withMigrationTarget(operations);
+            batch = new PendingBatch(expanded.size());
+            if (expanded.isEmpty()) {
+                batch.future.complete(null);
+            } else {
+                inFlight.add(batch.future);
+                batch.future.whenComplete((ignored, error) -> inFlight.remove(batch.future));
+            }
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+        for (BulkOperation operation : expanded) {
+            ingester.add(operation, batch);
+        }
+        return batch.future;
+    }
+
+    /**
+     * Gửi ngay các thao tác trong một bulk request riêng, không qua buffer của ingester.
+     * Dùng cho API quản trị cần kết quả từng thao tác hoặc refresh=wait_for:
+     * phần tử thứ i của response ứng với operations[i].
+     */
+    public BulkResponse execute(List<BulkOperation> operations, Refresh refresh) throws IOException {
+        indexManagementService.ensureProductIndexExists();
+        indexManagementService.ensureSellerIndexExists();
+        migrationLock.readLock().lock();
+        try {
+            return client.bulk(b -> b
+                    .operations(withMigrationTarget(operations))
+                    .refresh(refresh));
+        } finally {
+            migrationLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gửi ngay buffer và chờ mọi lần submit đã có trước lời gọi được Elasticsearch xử lý xong.
+     * Reindex gọi sau khi bật ghi kép: các thao tác cũ hơn chỉ được ghi vào index nguồn nên phải
+     * hiển thị ở đó trước khi bắt đầu chép. Batch thất bại được phía gọi submit lại và khi đó đã ghi kép.
+     */
+    public void awaitInFlight(long timeoutMs) {
+        List<CompletableFuture<Void>> pending;
+        migrationLock.writeLock().lock();
+        try {
+            pending = new ArrayList<>(inFlight);
+        } finally {
+            migrationLock.writeLock().unlock();
+        }
+        ingester.flush();
+        CompletableFuture<?>[] settled = pending.stream()
+                .map(future -> future.exceptionally(error -> null))
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(settled).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("Interrupted while waiting for in-flight bulk requests", e);
+        } catch (Exception e) {
+            throw new ElasticsearchException(pending.size() + " bulk batches still in flight after " + timeoutMs + " ms", e);
+        }
+    }
+
+    private List<BulkOperation> withMigrationTarget(List<BulkOperation> operations) {
+        // Trong lúc reindex, mỗi thao tác trên index chính được ghi thêm vào index đang dựng để không mất thay đổi.
+        // Bản ghi thêm nằm sau các thao tác gốc để thứ tự kết quả của chúng không đổi.
+        String migrationTarget = indexManagementService.getMigrationTarget();
+        if (migrationTarget == null) {
+            return operations;
+        }
+        List<BulkOperation> expanded = new ArrayList<>(operations.size() * 2);
+        expanded.addAll(operations);
+        for (BulkOperation operation : operations) {
+            if (indexName().equals(targetIndex(operation))) {
+                expanded.add(retarget(operation, migrationTarget));
+            }
+        }
+        return expanded;
+    }
+
+    private static String targetIndex(BulkOperation operation) {
+        if (operation.isDelete()) {
+            return operation.delete().index();
+        }
+        if (operation.isUpdate()) {
+            return operation.update().index();
+        }
+        return operation.isIndex() ? operation.index().index() : null;
+    }
+
+    private static BulkOperation retarget(BulkOperation operation, String index) {
+        if (operation.isDelete()) {
+            return BulkOperation.of(op -> op
+                    .delete(del -> del
+                            .index(index)
+                            .id(operation.delete().id())));
+        }
+        if (operation.isUpdate()) {
+            return BulkOperation.of(op -> op
+                    .update(u -> u
+                            .index(index)
+                            .id(operation.update().id())
+                            .retryOnConflict(operation.update().retryOnConflict())
+                            .action(operation.update().action())));
+        }
+        return BulkOperation.of(op -> op
+                .index(idx -> idx
+                        .index(index)
+                        .id(operation.index().id())
+                        .document(operation.index().document())));
+    }
+
+    /**
+     * Chờ tối đa ack-timeout cho tới khi các thao tác được xác nhận
+     */
+    public void submitAndWait(List<BulkOperation> operations) {
+        try {
+            // Tránh để Elasticsearch tự tạo index với dynamic mapping khi index chưa được khởi tạo lúc startup
+            indexManagementService.ensureProductIndexExists();
+            indexManagementService.ensureSellerIndexExists();
+            submit(operations).get(elasticsearchConfig.getBulk().getAckTimeoutMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("Interrupted while waiting for bulk acknowledgement", e);
+        } catch (Exception e) {
+            throw new ElasticsearchException("Bulk indexing of " + operations.size() + " operations failed", e);
+        }
+    }
+
+    String indexName() {
+        return elasticsearchConfig.getIndexSettings().getProducts().getAlias();
+    }
+
+    /**
+     * Đếm số thao tác chưa được xác nhận của một lần submit
+     */
+    private static class PendingBatch {
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingBatch(int size) {
+            this.remaining = new AtomicInteger(size);
+        }
+
+        void acknowledge() {
+            if (remaining.decrementAndGet() == 0) {
+                future.complete(null);
+            }
+        }
+
+        void fail(Throwable cause) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private static class AckListener implements BulkListener<PendingBatch> {
+
+        // Index thực của alias theo người bán, nơi xung đột version nghĩa là sự kiện cũ đến muộn
+        private final String sellerIndex;
+
+        AckListener(String sellerIndex) {
+            this.sellerIndex = sellerIndex;
+        }
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request, List<PendingBatch> contexts) {
+            log.debug("Sending bulk request {} with {} operations", executionId, request.operations().size());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<PendingBatch> contexts,
+                              BulkResponse response) {
+            List<BulkResponseItem> items = response.items();
+            for (int i = 0; i < items.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                PendingBatch batch = contexts.get(i);
+                if (item.error() == null) {
+                    batch.acknowledge();
+                } else if (item.status() == 409 && item.index().equals(sellerIndex)) {
+                    // Document đã được ghi bởi sự kiện mới hơn (index theo người bán, version external)
+                    log.debug("Ignoring stale write for product {}", item.id());
+                    batch.acknowledge();
+                } else if (item.status() == 429 || item.status() >= 500) {
+                    batch.fail(new ElasticsearchException("Retryable bulk item failure for " + item.id()
+                            + ": " + item.error().reason()));
+                } else {
+                    // Lỗi dữ liệu (mapping, ...) sẽ không tự hết khi gửi lại, bỏ qua để không chặn consumer
+                    log.error("Dropping product {} rejected by Elasticsearch: {}", item.id(), item.error().reason());
+                    batch.acknowledge();
+                }
+            }
+            log.debug("Bulk request {} completed in {} ms", executionId, response.took());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<PendingBatch> contexts,
+                              Throwable failure) {
+            log.error("Bulk request {} with {} operations failed: {}",
+                    executionId, request.operations().size(), failure.getMessage());
+            contexts.forEach(batch -> batch.fail(failure));
+        }
+    }
+}
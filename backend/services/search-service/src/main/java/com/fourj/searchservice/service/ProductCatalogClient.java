@@ -0,0 +1,66 @@
+package com.fourj.searchservice.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Đọc catalog từ API export của product-service (phân trang theo khóa id).
+ * API export chỉ dành cho admin nên mỗi request chuyển tiếp header Authorization của người khởi chạy backfill.
+ */
+@Component
+@Slf4j
+public class ProductCatalogClient {
+
+    private final RestClient restClient;
+
+    public ProductCatalogClient(@Value("${backfill.product-service-url:http://product-service:8084}") String baseUrl,
+                                @Value("${backfill.connect-timeout-ms:5000}") int connectTimeoutMs,
+                                @Value("${backfill.read-timeout-ms:30000}") int readTimeoutMs) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMs);
+        requestFactory.setReadTimeout(readTimeoutMs);
+        this.restClient = RestClient.builder()
+                .baseUrl(baseUrl)
+                .requestFactory(requestFactory)
+                .build();
+    }
+
+    /**
+     * Khoảng id hiện có: {"minId": ..., "maxId": ...}, giá trị null nếu chưa có sản phẩm
+     */
+    public JsonNode fetchBounds(String authorization) {
+        return restClient.get()
+                .uri("/api/admin/products/export/bounds")
+                .headers(headers -> setAuthorization(headers, authorization))
+                .retrieve()
+                .body(JsonNode.class);
+    }
+
+    /**
+     * Các sản phẩm có afterId < id <= toId, sắp xếp theo id tăng dần
+     */
+    public JsonNode fetchPage(long afterId, long toId, int limit, String authorization) {
+        return restClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/api/admin/products/export")
+                        .queryParam("afterId", afterId)
+                        .queryParam("toId", toId)
+                        .queryParam("limit", limit)
+                        .build())
+                .headers(headers -> setAuthorization(headers, authorization))
+                .retrieve()
+                .body(JsonNode.class);
+    }
+
+    private static void setAuthorization(HttpHeaders headers, String authorization) {
+        if (StringUtils.hasText(authorization)) {
+            headers.set(HttpHeaders.AUTHORIZATION, authorization);
+        }
+    }
+}
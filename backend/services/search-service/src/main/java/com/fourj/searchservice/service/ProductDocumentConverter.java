@@ -0,0 +1,97 @@
+package com.fourj.searchservice.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fourj.searchservice.document.ProductDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chuyển ProductDto của product-service (payload sự kiện Kafka hoặc trang export) sang ProductDocument
+ */
+@Component
+@Slf4j
+public class ProductDocumentConverter {
+
+    /**
+     * Chuyển đổi từ Product model sang ProductDocument
+     */
+    public ProductDocument convert(JsonNode productNode) {
+        try {
+            Long id = productNode.path("id").asLong();
+            String name = productNode.path("name").asText();
+            // Xử lý createdAt
+            LocalDateTime createdAt;
+            if (productNode.has("createdAt") && !productNode.path("createdAt").asText().isEmpty()) {
+                try {
+                    createdAt = LocalDateTime.parse(productNode.path("createdAt").asText());
+                } catch (DateTimeParseException e) {
+                    log.warn("Invalid createdAt format: {}, using current time",
+                            productNode.path("createdAt").asText());
+                    createdAt = LocalDateTime.now();
+                }
+            } else {
+                createdAt = LocalDateTime.now();
+            }
+
+            // Xử lý updatedAt
+            LocalDateTime updatedAt;
+            if (productNode.has("updatedAt") && !productNode.path("updatedAt").asText().isEmpty()) {
+                try {
+                    updatedAt = LocalDateTime.parse(productNode.path("updatedAt").asText());
+                } catch (DateTimeParseException e) {
+                    log.warn("Invalid updatedAt format: {}, using current time",
+                            productNode.path("updatedAt").asText());
+                    updatedAt = LocalDateTime.now();
+                }
+            } else {
+                updatedAt = LocalDateTime.now();
+            }
+            
+            ProductDocument document = ProductDocument.builder()
+                    .id(String.valueOf(id))
+                    .name(name)
+                    .description(productNode.path("description").asText())
+                    .price(productNode.has("price") ? 
+                            new BigDecimal(productNode.path("price").asText()) : null)
+                    .stockQuantity(productNode.path("stockQuantity").asInt())
+                    .imageUrl(productNode.path("imageUrl").asText())
+                    .categoryId(productNode.path("categoryId").asLong())
+                    .categoryName(productNode.path("categoryName").asText())
+                    .sellerId(productNode.path("sellerId").asText(null))
+                    .active(productNode.path("active").asBoolean(true))
+                    .createdAt(createdAt)
+                    .updatedAt(updatedAt)
+                    .inStock(productNode.path("stockQuantity").asInt() > 0)
+                    .build();
+            
+            // Trích xuất attributes nếu có
+            if (productNode.has("attributes") && productNode.path("attributes").isArray()) {
+                List<ProductDocument.ProductAttribute> attributes = new ArrayList<>();
+                
+                for (JsonNode attrNode : productNode.path("attributes")) {
+                    ProductDocument.ProductAttribute attribute = ProductDocument.ProductAttribute.builder()
+                            .name(attrNode.path("name").asText())
+                            .value(attrNode.path("value").asText())
+                            .displayName(attrNode.path("name").asText())
+                            .displayValue(attrNode.path("value").asText())
+                            .build();
+                    
+                    attributes.add(attribute);
+                }
+                
+                document.setAttributes(attributes);
+            }
+            
+            return document;
+        } catch (Exception e) {
+            log.error("Error converting product node to document", e);
+            return null;
+        }
+    }
+}
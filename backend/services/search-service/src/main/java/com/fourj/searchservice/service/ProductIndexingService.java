@@ -47,7 +47,7 @@ public class ProductIndexingService {
                 product.setInStock(product.getStockQuantity() > 0);
             }
             
-            String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
+            String indexName = elasticsearchConfig.getIndexSettings().getProducts().getAlias();
             
             IndexRequest<ProductDocument> request = IndexRequest.of(r -> r
                     .index(indexName)
@@ -70,7 +70,7 @@ public class ProductIndexingService {
     @Retry(name = "elasticsearch")
     public void deleteProduct(String productId) {
         try {
-            String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
+            String indexName = elasticsearchConfig.getIndexSettings().getProducts().getAlias();
             
             DeleteRequest request = DeleteRequest.of(r -> r
                     .index(indexName)
@@ -95,7 +95,7 @@ public class ProductIndexingService {
         }
         
         try {
-            String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
+            String indexName = elasticsearchConfig.getIndexSettings().getProducts().getAlias();
             
             BulkRequest.Builder bulkRequestBuilder = new BulkRequest.Builder();
             
@@ -0,0 +1,388 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.fourj.searchservice.config.ElasticsearchConfig;
+import com.fourj.searchservice.document.ProductDocument;
+import com.fourj.searchservice.dto.ProductIndexDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Bảng tiền tố tên sản phẩm đang bán nằm trong bộ nhớ, trả lời autocomplete không cần gọi Elasticsearch.
+ * Tên được chuẩn hóa (chữ thường, bỏ dấu như vietnamese_analyzer) và sắp xếp, một tiền tố
+ * ứng với một đoạn liên tiếp tìm được bằng binary search.
+ * Bảng được cập nhật từ sự kiện sản phẩm, dựng lại định kỳ khi có thay đổi và lưu ra file
+ * (tên nén theo tiền tố chung với dòng trước) để khởi động lại chỉ cần map file thay vì quét lại index.
+ */
+@Component
+@Slf4j
+public class ProductNameIndex {
+
+    private static final int FILE_MAGIC = 0x464A504E; // "FJPN"
+    private static final int FILE_VERSION = 1;
+    private static final int BOOTSTRAP_PAGE_SIZE = 1000;
+    // Giới hạn số dòng duyệt khi lọc theo danh mục để giữ thời gian trả lời ổn định
+    private static final int MAX_SCAN = 5000;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final ElasticsearchClient client;
+    private final ElasticsearchConfig elasticsearchConfig;
+    private final boolean enabled;
+    private final Path snapshotPath;
+    private final long rebuildIntervalMs;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // eventVersion mới nhất đã áp dụng cho mỗi sản phẩm, kể cả sản phẩm đã xóa (tombstone)
+    private final Map<String, Long> appliedVersions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "product-name-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile boolean ready = false;
+    private volatile boolean dirty = false;
+
+    public ProductNameIndex(ElasticsearchClient client,
+                            ElasticsearchConfig elasticsearchConfig,
+                            @Value("${suggestions.local-index.enabled:false}") boolean enabled,
+                            @Value("${suggestions.local-index.path:data/product-names.idx}") String snapshotPath,
+                            @Value("${suggestions.local-index.rebuild-interval-ms:1000}") long rebuildIntervalMs) {
+        this.client = client;
+        this.elasticsearchConfig = elasticsearchConfig;
+        this.enabled = enabled;
+        this.snapshotPath = Paths.get(snapshotPath);
+        this.rebuildIntervalMs = rebuildIntervalMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (Files.exists(snapshotPath)) {
+            try {
+                loadSnapshot();
+                ready = true;
+                log.info("Loaded {} product names for suggestions from {}", entries.size(), snapshotPath);
+            } catch (Exception e) {
+                log.warn("Không đọc được file gợi ý {}, sẽ dựng lại từ Elasticsearch: {}", snapshotPath, e.getMessage());
+                entries.clear();
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::maintain, 0, rebuildIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (ready && dirty) {
+            try {
+                writeSnapshot(rebuild());
+            } catch (IOException e) {
+                log.warn("Không thể lưu bảng gợi ý tên sản phẩm: {}", e.getMessage());
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * Cập nhật theo lô sự kiện đã được index, giá trị null nghĩa là sản phẩm đã bị xóa
+     */
+    public void apply(Map<String, ProductDocument> documents) {
+        if (!enabled || documents.isEmpty()) {
+            return;
+        }
+        documents.forEach((id, document) -> {
+            Long version = document != null ? document.getEventVersion() : null;
+            if (version == null) {
+                // Dữ liệu không có version (backfill, API quản trị) không ghi đè trạng thái do sự kiện có version tạo ra
+                if (document == null || !appliedVersions.containsKey(id)) {
+                    applyEntry(id, document);
+                }
+                return;
+            }
+            // Các consumer chạy song song có thể gọi apply với trạng thái cũ sau trạng thái mới,
+            // cập nhật trong compute để kiểm tra version và ghi entry là một bước với mỗi sản phẩm
+            appliedVersions.compute(id, (key, applied) -> {
+                if (applied != null && applied > version) {
+                    return applied;
+                }
+                applyEntry(id, document);
+                return version;
+            });
+        });
+        dirty = true;
+    }
+
+    private void applyEntry(String id, ProductDocument document) {
+        if (document == null || !document.isActive() || !StringUtils.hasText(document.getName())) {
+            entries.remove(id);
+        } else {
+            entries.put(id, new Entry(id, document.getName(), document.getCategoryName()));
+        }
+    }
+
+    /**
+     * Tên sản phẩm bắt đầu bằng prefix (không phân biệt hoa thường, dấu), tùy chọn giới hạn trong một danh mục
+     */
+    public List<String> suggest(String prefix, String category, int size) {
+        String normalizedPrefix = normalize(prefix);
+        Snapshot current = snapshot;
+        if (normalizedPrefix.isEmpty() || current.keys.length == 0) {
+            return Collections.emptyList();
+        }
+
+        int index = Arrays.binarySearch(current.keys, normalizedPrefix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        Set<String> suggestions = new LinkedHashSet<>();
+        for (int scanned = 0; index < current.keys.length && scanned < MAX_SCAN; index++, scanned++) {
+            if (!current.keys[index].startsWith(normalizedPrefix)) {
+                break;
+            }
+            if (category != null && !category.equals(current.categories[index])) {
+                continue;
+            }
+            suggestions.add(current.names[index]);
+            if (suggestions.size() >= size) {
+                break;
+            }
+        }
+        return new ArrayList<>(suggestions);
+    }
+
+    private void maintain() {
+        try {
+            if (!ready) {
+                bootstrapFromIndex();
+                ready = true;
+                dirty = true;
+            }
+            if (dirty) {
+                dirty = false;
+                writeSnapshot(rebuild());
+            }
+        } catch (Exception e) {
+            log.warn("Không thể cập nhật bảng gợi ý tên sản phẩm: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Quét các sản phẩm đang bán trong index theo search_after.
+     * Sự kiện đến trong lúc quét mới hơn dữ liệu trong index nên không bị ghi đè.
+     */
+    private void bootstrapFromIndex() throws IOException {
+        String indexName = elasticsearchConfig.getIndexSettings().getProducts().getAlias();
+        List<FieldValue> searchAfter = null;
+        int loaded = 0;
+        while (true) {
+            List<FieldValue> after = searchAfter;
+            SearchResponse<ProductIndexDto> response = client.search(s -> {
+                s.index(indexName)
+                        .size(BOOTSTRAP_PAGE_SIZE)
+                        .query(q -> q.term(t -> t.field("active").value(true)))
+                        .source(src -> src.filter(f -> f.includes("name", "categoryName")))
+                        .sort(so -> so.field(f -> f.field("id").order(SortOrder.Asc)));
+                if (after != null) {
+                    s.searchAfter(after);
+                }
+                return s;
+            }, ProductIndexDto.class);
+
+            List<Hit<ProductIndexDto>> hits = response.hits().hits();
+            for (Hit<ProductIndexDto> hit : hits) {
+                ProductIndexDto product = hit.source();
+                // Sản phẩm đã nhận sự kiện trong lúc dựng giữ trạng thái từ sự kiện
+                if (product != null && StringUtils.hasText(product.getName()) && !appliedVersions.containsKey(hit.id())) {
+                    entries.putIfAbsent(hit.id(), new Entry(hit.id(), product.getName(), product.getCategoryName()));
+                    loaded++;
+                }
+            }
+            if (hits.size() < BOOTSTRAP_PAGE_SIZE) {
+                break;
+            }
+            searchAfter = hits.get(hits.size() - 1).sort();
+        }
+        log.info("Loaded {} product names for suggestions from index {}", loaded, indexName);
+    }
+
+    private List<Entry> rebuild() {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort(Comparator.comparing((Entry entry) -> entry.key).thenComparing(entry -> entry.id));
+
+        int size = sorted.size();
+        String[] keys = new String[size];
+        String[] names = new String[size];
+        String[] categories = new String[size];
+        for (int i = 0; i < size; i++) {
+            Entry entry = sorted.get(i);
+            keys[i] = entry.key;
+            names[i] = entry.name;
+            categories[i] = entry.category;
+        }
+        snapshot = new Snapshot(keys, names, categories);
+        return sorted;
+    }
+
+    /**
+     * Ghi file tạm rồi đổi tên để lần khởi động sau không đọc phải file ghi dở
+     */
+    private void writeSnapshot(List<Entry> sorted) throws IOException {
+        Path parent = snapshotPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tempFile = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (OutputStream file = Files.newOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(sorted.size());
+            String previous = "";
+            for (Entry entry : sorted) {
+                int shared = sharedPrefixLength(previous, entry.name);
+                writeString(out, entry.id);
+                writeString(out, entry.category);
+                out.writeShort(shared);
+                writeString(out, entry.name.substring(shared));
+                previous = entry.name;
+            }
+        }
+        Files.move(tempFile, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadSnapshot() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                throw new IOException("Unsupported snapshot format");
+            }
+            int count = buffer.getInt();
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                String id = readString(buffer);
+                String category = readString(buffer);
+                int shared = buffer.getShort();
+                String name = previous.substring(0, shared) + readString(buffer);
+                entries.put(id, new Entry(id, name, category));
+                previous = name;
+            }
+        }
+        rebuild();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int sharedPrefixLength(String a, String b) {
+        int max = Math.min(Math.min(a.length(), b.length()), Short.MAX_VALUE);
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        // Không cắt giữa một cặp surrogate
+        if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+        return folded.replace('đ', 'd').replace('Đ', 'D')
+                .toLowerCase(Locale.ROOT)
+                .trim()
+                .replaceAll("\\s+", " ");
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final String name;
+        private final String category;
+        private final String key;
+
+        private Entry(String id, String name, String category) {
+            this.id = id;
+            this.name = name;
+            this.category = category;
+            this.key = normalize(name);
+        }
+    }
+
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(new String[0], new String[0], new String[0]);
+
+        private final String[] keys;
+        private final String[] names;
+        private final String[] categories;
+
+        private Snapshot(String[] keys, String[] names, String[] categories) {
+            this.keys = keys;
+            this.names = names;
+            this.categories = categories;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.OpType;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import com.fourj.searchservice.config.ElasticsearchConfig;
+import com.fourj.searchservice.exception.ElasticsearchException;
+import com.fourj.searchservice.exception.SearchServiceException;
+import jakarta.annotation.PreDestroy;
+import jakarta.json.JsonArray;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.core.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dựng lại index sản phẩm không gián đoạn: tạo products_vN từ template với settings tối ưu cho ghi
+ * hàng loạt (không replica, tắt refresh), chép dữ liệu từ index hiện tại, khôi phục settings
+ * rồi đổi alias sang index mới trong một request nguyên tử.
+ * Trong lúc chép, các thao tác ghi từ Kafka được gửi vào cả index cũ và index mới.
+ */
+@Service
+@Slf4j
+public class ProductReindexService {
+
+    private static final long TASK_POLL_INTERVAL_MS = 2000;
+
+    private final ElasticsearchClient client;
+    private final ElasticsearchConfig elasticsearchConfig;
+    private final IndexManagementService indexManagementService;
+    private final SearchResultCache searchResultCache;
+    private final ProductBulkIngester bulkIngester;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "product-reindex");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Map<String, Object> lastRun = Map.of();
+
+    private final boolean reindexOutdatedOnStartup;
+
+    public ProductReindexService(ElasticsearchClient client,
+                                 ElasticsearchConfig elasticsearchConfig,
+                                 IndexManagementService indexManagementService,
+                                 SearchResultCache searchResultCache,
+                                 ProductBulkIngester bulkIngester,
+                                 @Value("${indexing.reindex-outdated-on-startup:true}") boolean reindexOutdatedOnStartup) {
+        this.client = client;
+        this.elasticsearchConfig = elasticsearchConfig;
+        this.indexManagementService = indexManagementService;
+        this.searchResultCache = searchResultCache;
+        this.bulkIngester = bulkIngester;
+        this.reindexOutdatedOnStartup = reindexOutdatedOnStartup;
+    }
+
+    /**
+     * Alias còn trỏ vào index tạo trước template hiện tại (ví dụ index products của bản cũ) thì mapping mới
+     * không có hiệu lực và các thao tác ghi dùng trường mới bị từ chối; reindex ngay khi khởi động để nâng cấp.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reindexOutdatedIndices() {
+        if (!reindexOutdatedOnStartup) {
+            return;
+        }
+        try {
+            indexManagementService.ensureProductIndexExists();
+            List<String> outdated = indexManagementService.outdatedProductIndices();
+            if (!outdated.isEmpty()) {
+                log.warn("Product indices {} predate template version {}, reindexing",
+                        outdated, IndexManagementService.TEMPLATE_VERSION);
+                startReindex();
+            }
+        } catch (SearchServiceException e) {
+            log.info("Skipping startup reindex: {}", e.getMessage());
+        } catch (Exception e) {
+            log.error("Could not check product indices against template version {}: {}",
+                    IndexManagementService.TEMPLATE_VERSION, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Bắt đầu reindex ở background
+     *
+     * @return tên index mới
+     */
+    public String startReindex() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            throw new SearchServiceException("Đang có một lần reindex chạy", "REINDEX_IN_PROGRESS", 409);
+        }
+        try {
+            indexManagementService.putProductIndexTemplate();
+            String targetIndex = indexManagementService.nextVersionedIndexName();
+            executor.submit(() -> run(targetIndex));
+            return targetIndex;
+        } catch (IOException | RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>(lastRun);
+        status.put("running", running.get());
+        status.put("migrationTarget", indexManagementService.getMigrationTarget());
+        return status;
+    }
+
+    private void run(String targetIndex) {
+        Instant start = Instant.now();
+        updateStatus(targetIndex, "CREATING", start, null);
+        boolean created = false;
+        try {
+            indexManagementService.ensureProductIndexExists();
+            List<String> sourceIndices = indexManagementService.currentProductIndices();
+
+            // Settings cho ghi hàng loạt, template cung cấp mapping và analyzer
+            client.indices().create(c -> c
+                    .index(targetIndex)
+                    .settings(s -> s
+                            .numberOfReplicas("0")
+                            .refreshInterval(t -> t.time("-1"))));
+            created = true;
+
+            // Bật ghi kép trước khi chép để không mất thay đổi đến trong lúc reindex. Thao tác ghi trước đó
+            // chỉ vào index nguồn: chờ chúng hoàn tất rồi refresh để scroll của _reindex thấy được
+            indexManagementService.setMigrationTarget(targetIndex);
+            bulkIngester.awaitInFlight(elasticsearchConfig.getBulk().getAckTimeoutMs());
+            if (!sourceIndices.isEmpty()) {
+                client.indices().refresh(r -> r.index(sourceIndices));
+            }
+            updateStatus(targetIndex, "COPYING", start, null);
+            copyDocuments(sourceIndices, targetIndex);
+
+            updateStatus(targetIndex, "FINALIZING", start, null);
+            var settings = elasticsearchConfig.getIndexSettings().getProducts();
+            client.indices().putSettings(p -> p
+                    .index(targetIndex)
+                    .settings(s -> s
+                            .numberOfReplicas(String.valueOf(settings.getReplicas()))
+                            .refreshInterval(t -> t.time(
+                                    TimeValue.parseTimeValue(settings.getRefreshInterval(), "refreshInterval").toString()))));
+            client.indices().refresh(r -> r.index(targetIndex));
+
+            swapAlias(sourceIndices, targetIndex);
+            indexManagementService.setMigrationTarget(null);
+            deleteOldIndices(sourceIndices);
+            searchResultCache.invalidateAll();
+
+            updateStatus(targetIndex, "COMPLETED", start, null);
+            log.info("Reindex to {} completed in {} s", targetIndex,
+                    java.time.Duration.between(start, Instant.now()).toSeconds());
+        } catch (Exception e) {
+            log.error("Reindex to {} failed, alias vẫn trỏ vào index cũ", targetIndex, e);
+            indexManagementService.setMigrationTarget(null);
+            // Không xóa index mà lần reindex khác (ví dụ của instance khác lúc khởi động) đã tạo
+            if (created) {
+                dropFailedIndex(targetIndex);
+            }
+            updateStatus(targetIndex, "FAILED", start, e.getMessage());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Chép bằng _reindex chạy dạng task để không bị giới hạn bởi socket timeout.
+     * op_type=create giữ lại các document mới hơn đã được ghi kép vào index đích.
+     */
+    private void copyDocuments(List<String> sourceIndices, String targetIndex) throws IOException, InterruptedException {
+        if (sourceIndices.isEmpty()) {
+            return;
+        }
+        String taskId = client.reindex(r -> r
+                .source(src -> src.index(sourceIndices).size(1000))
+                .dest(d -> d.index(targetIndex).opType(OpType.Create))
+                .conflicts(Conflicts.Proceed)
+                .slices(sl -> sl.computed(co.elastic.clients.elasticsearch._types.SlicesCalculation.Auto))
+                .waitForCompletion(false)).task();
+
+        while (true) {
+            GetTasksResponse task = client.tasks().get(t -> t.taskId(taskId));
+            if (task.completed()) {
+                if (task.error() != null) {
+                    throw new ElasticsearchException("Reindex task failed: " + task.error().reason());
+                }
+                // conflicts=proceed chỉ bỏ qua xung đột version (document đã được ghi kép);
+                // lỗi của từng document nằm trong failures và nghĩa là index mới thiếu dữ liệu
+                JsonArray failures = task.response() != null
+                        ? task.response().toJson(client._jsonpMapper()).asJsonObject().getJsonArray("failures")
+                        : null;
+                if (failures != null && !failures.isEmpty()) {
+                    log.error("Reindex into {} failed for {} documents, first: {}",
+                            targetIndex, failures.size(), failures.get(0));
+                    throw new ElasticsearchException("Reindex task reported " + failures.size() + " document failures");
+                }
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(TASK_POLL_INTERVAL_MS);
+        }
+    }
+
+    private void swapAlias(List<String> sourceIndices, String targetIndex) throws IOException {
+        String alias = indexManagementService.productAlias();
+        client.indices().updateAliases(u -> {
+            for (String sourceIndex : sourceIndices) {
+                u.actions(a -> a.remove(r -> r.index(sourceIndex).alias(alias)));
+            }
+            return u.actions(a -> a.add(ad -> ad.index(targetIndex).alias(alias).isWriteIndex(true)));
+        });
+        log.info("Alias {} switched from {} to {}", alias, sourceIndices, targetIndex);
+    }
+
+    /**
+     * Giữ lại index vừa được thay thế để có thể quay lại, xóa các phiên bản cũ hơn
+     */
+    private void deleteOldIndices(List<String> replacedIndices) {
+        String baseName = elasticsearchConfig.getIndexSettings().getProducts().getName();
+        try {
+            List<String> stale = new ArrayList<>();
+            client.indices().get(g -> g.index(baseName + "_v*").allowNoIndices(true).ignoreUnavailable(true))
+                    .result().keySet().forEach(indexName -> {
+                        if (!replacedIndices.contains(indexName)
+                                && !indexName.equals(indexManagementService.getMigrationTarget())
+                                && !isCurrent(indexName)) {
+                            stale.add(indexName);
+                        }
+                    });
+            for (String indexName : stale) {
+                client.indices().delete(d -> d.index(indexName));
+                log.info("Deleted old product index {}", indexName);
+            }
+        } catch (Exception e) {
+            log.warn("Could not clean up old product indices: {}", e.getMessage());
+        }
+    }
+
+    private boolean isCurrent(String indexName) {
+        try {
+            return indexManagementService.currentProductIndices().contains(indexName);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void dropFailedIndex(String targetIndex) {
+        try {
+            if (client.indices().exists(e -> e.index(targetIndex)).value()) {
+                client.indices().delete(d -> d.index(targetIndex));
+            }
+        } catch (Exception e) {
+            log.warn("Could not delete failed reindex target {}: {}", targetIndex, e.getMessage());
+        }
+    }
+
+    private void updateStatus(String targetIndex, String phase, Instant start, String error) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("targetIndex", targetIndex);
+        status.put("phase", phase);
+        status.put("startedAt", start.toString());
+        if (error != null) {
+            status.put("error", error);
+        }
+        lastRun = status;
+    }
+}
@@ -0,0 +1,73 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch.core.DeleteByQueryResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Xóa hẳn các tombstone do sự kiện xóa có version tạo ra (xem ProductBulkIngester.deleteOperation).
+ * Tombstone chỉ cần tồn tại đủ lâu để chặn sự kiện cũ hơn còn nằm trong các partition khác,
+ * nên được giữ lại trong tombstone-retention rồi dọn định kỳ bằng delete_by_query.
+ */
+@Component
+@Slf4j
+public class ProductTombstonePurger {
+
+    private final ElasticsearchClient client;
+    private final IndexManagementService indexManagementService;
+    private final long retentionSeconds;
+    private final long intervalSeconds;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "product-tombstone-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ProductTombstonePurger(ElasticsearchClient client,
+                                  IndexManagementService indexManagementService,
+                                  @Value("${indexing.tombstone-retention:3600}") long retentionSeconds,
+                                  @Value("${indexing.tombstone-purge-interval:600}") long intervalSeconds) {
+        this.client = client;
+        this.indexManagementService = indexManagementService;
+        this.retentionSeconds = retentionSeconds;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::purge, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    void purge() {
+        try {
+            // Tombstone dùng updatedAt (UTC) làm thời điểm xóa
+            DeleteByQueryResponse response = client.deleteByQuery(d -> d
+                    .index(indexManagementService.productAlias())
+                    .conflicts(Conflicts.Proceed)
+                    .query(q -> q.bool(b -> b
+                            .filter(f -> f.term(t -> t.field("deleted").value(true)))
+                            .filter(f -> f.range(r -> r.date(dr -> dr
+                                    .field("updatedAt")
+                                    .lt("now-" + retentionSeconds + "s")))))));
+            if (response.deleted() != null && response.deleted() > 0) {
+                log.info("Purged {} product tombstones older than {} s", response.deleted(), retentionSeconds);
+            }
+        } catch (Exception e) {
+            log.warn("Không thể dọn tombstone sản phẩm: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch._types.Refresh;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.json.JsonData;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cộng dồn số lượng bán của từng sản phẩm từ sự kiện đơn hàng trong bộ nhớ và định kỳ ghi
+ * một thao tác cập nhật soldCount cho mỗi sản phẩm, thay vì ghi lại document sau mỗi đơn hàng.
+ * Bộ đếm là bảng băm long -> long địa chỉ mở nên không tạo object cho mỗi lần bán.
+ */
+@Component
+@Slf4j
+public class SalesSignalAggregator {
+
+    static final String INCREMENT_SOLD_SCRIPT =
+            "ctx._source.soldCount = (ctx._source.soldCount == null ? 0 : ctx._source.soldCount) + params.delta";
+
+    private final ProductBulkIngester bulkIngester;
+    private final long flushIntervalMs;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sales-signal-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Được thay bằng bảng mới khi flush, mọi truy cập giữ lock của this
+    private LongCounterMap pending = new LongCounterMap(1024);
+
+    public SalesSignalAggregator(ProductBulkIngester bulkIngester,
+                                 @Value("${sales-signals.flush-interval-ms:10000}") long flushIntervalMs) {
+        this.bulkIngester = bulkIngester;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Ghi nhận số lượng bán của các sản phẩm trong một lô đơn hàng
+     *
+     * @param productIds mảng id sản phẩm, quantities[i] là số lượng của productIds[i]
+     */
+    public synchronized void record(long[] productIds, long[] quantities, int length) {
+        for (int i = 0; i < length; i++) {
+            if (quantities[i] > 0) {
+                pending.add(productIds[i], quantities[i]);
+            }
+        }
+    }
+
+    public synchronized int pendingProducts() {
+        return pending.size();
+    }
+
+    /**
+     * Gửi phần cộng dồn hiện tại dưới dạng partial update trong một bulk request riêng để có kết quả
+     * từng thao tác. Script cộng dồn không idempotent nên chỉ số liệu chắc chắn chưa được áp dụng mới
+     * được cộng trả lại để gửi ở lần sau: thao tác bị từ chối vì lỗi tạm thời (429, 5xx) hoặc cả request
+     * không kết nối được tới Elasticsearch. Khi không biết request đã được áp dụng hay chưa (timeout,
+     * mất kết nối giữa chừng) số liệu bị bỏ và ghi log, chấp nhận thiếu thay vì đếm trùng.
+     */
+    void flush() {
+        LongCounterMap batch;
+        synchronized (this) {
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = pending;
+            pending = new LongCounterMap(Math.max(1024, batch.size()));
+        }
+
+        long[] productIds = new long[batch.size()];
+        long[] deltas = new long[batch.size()];
+        List<BulkOperation> operations = new ArrayList<>(batch.size());
+        batch.forEach((productId, delta) -> {
+            productIds[operations.size()] = productId;
+            deltas[operations.size()] = delta;
+            operations.add(BulkOperation.of(op -> op
+                    .update(u -> u
+                            .id(String.valueOf(productId))
+                            .index(bulkIngester.indexName())
+                            .retryOnConflict(3)
+                            .action(a -> a.script(s -> s
+                                    .source(INCREMENT_SOLD_SCRIPT)
+                                    .params("delta", JsonData.of(delta)))))));
+        });
+
+        BulkResponse response;
+        try {
+            response = bulkIngester.execute(operations, Refresh.False);
+        } catch (Exception e) {
+            if (notSent(e)) {
+                log.warn("Could not reach Elasticsearch to flush sales counts for {} products, will retry: {}",
+                        operations.size(), e.getMessage());
+                synchronized (this) {
+                    batch.forEach(pending::add);
+                }
+            } else {
+                log.error("Flushing sales counts for {} products failed with unknown outcome, dropping them: {}",
+                        operations.size(), e.getMessage());
+            }
+            return;
+        }
+
+        // Bản ghi thêm cho index đang reindex nằm sau, phần tử thứ i ứng với operations[i]
+        List<BulkResponseItem> items = response.items();
+        int retried = 0;
+        synchronized (this) {
+            for (int i = 0; i < operations.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                if (item.error() == null) {
+                    continue;
+                }
+                if (item.status() == 429 || item.status() >= 500) {
+                    pending.add(productIds[i], deltas[i]);
+                    retried++;
+                } else {
+                    // Sản phẩm chưa có trong index (404) hoặc lỗi dữ liệu, gửi lại cũng không thành công
+                    log.warn("Dropping sales count {} for product {}: {}", deltas[i], item.id(), item.error().reason());
+                }
+            }
+        }
+        if (retried > 0) {
+            log.warn("{} of {} sales count updates were rejected, will retry", retried, operations.size());
+        }
+        log.debug("Flushed sales counts for {} products", operations.size() - retried);
+    }
+
+    // Request chưa tới được Elasticsearch (từ chối kết nối) nên chắc chắn chưa có thao tác nào được áp dụng
+    private static boolean notSent(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bảng băm địa chỉ mở (linear probing) từ id sản phẩm sang số lượng, id 0 dùng làm ô trống
+     */
+    static final class LongCounterMap {
+        private long[] keys;
+        private long[] values;
+        private int size;
+        private boolean hasZeroKey;
+        private long zeroValue;
+
+        LongCounterMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            keys = new long[capacity];
+            values = new long[capacity];
+        }
+
+        void add(long key, long delta) {
+            if (key == 0) {
+                if (!hasZeroKey) {
+                    hasZeroKey = true;
+                    size++;
+                }
+                zeroValue += delta;
+                return;
+            }
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    values[slot] += delta;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = delta;
+            if (++size * 4 > keys.length * 3) {
+                resize();
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        void forEach(LongLongConsumer consumer) {
+            if (hasZeroKey) {
+                consumer.accept(0, zeroValue);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    consumer.accept(keys[i], values[i]);
+                }
+            }
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length << 1];
+            values = new long[oldKeys.length << 1];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = mix(oldKeys[i]) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    @FunctionalInterface
+    interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+}
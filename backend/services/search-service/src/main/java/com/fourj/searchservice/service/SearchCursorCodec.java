@@ -0,0 +1,78 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fourj.searchservice.exception.SearchServiceException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Mã hóa vị trí phân trang (point-in-time id và giá trị sort của hit cuối) thành token mờ cho client
+ */
+@Component
+@RequiredArgsConstructor
+public class SearchCursorCodec {
+
+    private final ObjectMapper objectMapper;
+
+    public String encode(String pitId, List<FieldValue> searchAfter) {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("pit", pitId);
+        ArrayNode after = node.putArray("after");
+        for (FieldValue value : searchAfter) {
+            switch (value._kind()) {
+                case Long -> after.add(value.longValue());
+                case Double -> after.add(value.doubleValue());
+                case Boolean -> after.add(value.booleanValue());
+                case String -> after.add(value.stringValue());
+                default -> after.addNull();
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(node.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Cursor decode(String token) {
+        try {
+            JsonNode node = objectMapper.readTree(Base64.getUrlDecoder().decode(token));
+            List<FieldValue> searchAfter = new ArrayList<>();
+            for (JsonNode value : node.path("after")) {
+                if (value.isIntegralNumber()) {
+                    searchAfter.add(FieldValue.of(value.longValue()));
+                } else if (value.isNumber()) {
+                    searchAfter.add(FieldValue.of(value.doubleValue()));
+                } else if (value.isBoolean()) {
+                    searchAfter.add(FieldValue.of(value.booleanValue()));
+                } else if (value.isNull()) {
+                    searchAfter.add(FieldValue.NULL);
+                } else {
+                    searchAfter.add(FieldValue.of(value.asText()));
+                }
+            }
+            String pitId = node.path("pit").asText(null);
+            if (pitId == null || searchAfter.isEmpty()) {
+                throw new IllegalArgumentException("Missing cursor fields");
+            }
+            return new Cursor(pitId, searchAfter);
+        } catch (Exception e) {
+            throw new SearchServiceException("Cursor không hợp lệ", "INVALID_CURSOR", 400, e);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Cursor {
+        private final String pitId;
+        private final List<FieldValue> searchAfter;
+    }
+}
@@ -0,0 +1,451 @@
+package com.fourj.searchservice.service;
+
+import com.fourj.searchservice.config.ElasticsearchConfig;
+import com.fourj.searchservice.config.RedisConfig;
+import com.fourj.searchservice.dto.SearchRequest;
+import com.fourj.searchservice.dto.SearchResponse;
+import com.fourj.searchservice.exception.ElasticsearchException;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.core.TimeValue;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Cache kết quả tìm kiếm hai tầng: L1 trong bộ nhớ (Caffeine) và L2 trên Redis.
+ * Các request giống nhau đang chạy đồng thời chỉ tạo một lời gọi Elasticsearch (single-flight).
+ * <p>
+ * Key chứa "generation" của các phạm vi dữ liệu mà request phụ thuộc (toàn bộ index,
+ * danh sách không lọc danh mục, từng danh mục). Khi sản phẩm thay đổi, generation tương ứng
+ * được tăng trên Redis và thông báo cho các instance khác qua pub/sub, nên các entry cũ
+ * không còn được đọc tới và tự hết hạn theo TTL.
+ */
+@Service
+@Slf4j
+public class SearchResultCache implements MessageListener {
+
+    public static final String INVALIDATION_CHANNEL = "search:cache:invalidate";
+
+    private static final String RESULT_KEY_PREFIX = "search:result:";
+    private static final String FACETS_KEY_PREFIX = "search:facets:";
+    private static final String GENERATIONS_KEY = "search:cache:generations";
+    private static final String SCOPE_ALL = "all";
+    private static final String SCOPE_UNFILTERED = "unfiltered";
+    private static final String SCOPE_CATEGORY = "category:";
+
+    // Sau khi Redis lỗi, bỏ qua L2 một khoảng thời gian để không cộng thêm timeout vào mỗi request
+    private static final long REDIS_BACKOFF_MS = 10000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final AsyncCache<String, SearchResponse> localCache;
+    // Generation được nhớ cục bộ trong thời gian ngắn để không đọc Redis ở mỗi request;
+    // nếu lỡ thông báo pub/sub thì độ trễ invalidate cũng không vượt quá thời gian này
+    private final Cache<String, Long> generations;
+    private final Duration redisTtl;
+    private final Duration localTtl;
+    private final long invalidationDelayMs;
+    private final ScheduledExecutorService invalidationScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "search-cache-invalidation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Counter localHits;
+    private final Counter redisHits;
+    private final Counter misses;
+
+    private volatile long redisUnavailableUntil = 0;
+
+    public SearchResultCache(RedisTemplate<String, Object> redisTemplate,
+                             RedisConfig redisConfig,
+                             ElasticsearchConfig elasticsearchConfig,
+                             MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.redisTtl = Duration.ofSeconds(redisConfig.getSearchResultsTtl());
+        this.localTtl = Duration.ofSeconds(redisConfig.getSearchResultsLocalTtl());
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(redisConfig.getSearchResultsLocalMaxSize())
+                .expireAfterWrite(localTtl)
+                .buildAsync();
+        this.generations = Caffeine.newBuilder()
+                .expireAfterWrite(localTtl)
+                .build();
+        // Dữ liệu mới chỉ tìm thấy được sau một chu kỳ refresh của index
+        this.invalidationDelayMs = TimeValue.parseTimeValue(
+                elasticsearchConfig.getIndexSettings().getProducts().getRefreshInterval(), "refreshInterval").millis();
+        this.localHits = meterRegistry.counter("search.cache.requests", "result", "local_hit");
+        this.redisHits = meterRegistry.counter("search.cache.requests", "result", "redis_hit");
+        this.misses = meterRegistry.counter("search.cache.requests", "result", "miss");
+    }
+
+    @FunctionalInterface
+    public interface SearchLoader {
+        SearchResponse load() throws IOException;
+    }
+
+    /**
+     * Trả về kết quả từ L1, L2 hoặc gọi loader. Kết quả lỗi không được cache.
+     */
+    public SearchResponse get(SearchRequest request, SearchLoader loader) throws IOException {
+        return get(cacheKey(request), loader);
+    }
+
+    /**
+     * Facet của một bộ lọc, dùng chung cho mọi trang, kích thước trang và cách sắp xếp
+     */
+    public SearchResponse getFacets(SearchRequest request, SearchLoader loader) throws IOException {
+        return get(facetsKey(request), loader);
+    }
+
+    public SearchResponse getFacetsIfPresent(SearchRequest request) {
+        return getIfPresent(facetsKey(request));
+    }
+
+    public void putFacets(SearchRequest request, SearchResponse facets) {
+        put(facetsKey(request), facets);
+    }
+
+    private SearchResponse get(String key, SearchLoader loader) throws IOException {
+        CompletableFuture<SearchResponse> pending = new CompletableFuture<>();
+        CompletableFuture<SearchResponse> existing = localCache.asMap().putIfAbsent(key, pending);
+        if (existing != null) {
+            localHits.increment();
+            return await(existing);
+        }
+
+        try {
+            SearchResponse response = readFromRedis(key);
+            if (response != null) {
+                redisHits.increment();
+            } else {
+                misses.increment();
+                response = loader.load();
+                writeToRedis(key, response);
+            }
+            pending.complete(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            localCache.asMap().remove(key, pending);
+            pending.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Kết quả đã có trong L1 hoặc L2, không gọi loader. Dùng cho tìm kiếm theo lô,
+     * các request chưa có kết quả được gom lại gửi một lần.
+     */
+    public SearchResponse getIfPresent(SearchRequest request) {
+        return getIfPresent(cacheKey(request));
+    }
+
+    /**
+     * Lưu kết quả đã tải bên ngoài get(), ví dụ từ một lần _msearch
+     */
+    public void put(SearchRequest request, SearchResponse response) {
+        put(cacheKey(request), response);
+    }
+
+    private SearchResponse getIfPresent(String key) {
+        CompletableFuture<SearchResponse> existing = localCache.getIfPresent(key);
+        if (existing != null && existing.isDone() && !existing.isCompletedExceptionally()) {
+            localHits.increment();
+            return existing.join();
+        }
+        SearchResponse response = readFromRedis(key);
+        if (response != null) {
+            redisHits.increment();
+            localCache.put(key, CompletableFuture.completedFuture(response));
+        }
+        return response;
+    }
+
+    private void put(String key, SearchResponse response) {
+        misses.increment();
+        localCache.put(key, CompletableFuture.completedFuture(response));
+        writeToRedis(key, response);
+    }
+
+    /**
+     * Tải lại kết quả trước khi bản trong cache hết hạn (refresh-ahead).
+     * Bỏ qua nếu bản trong Redis còn sống lâu hơn refreshAhead.
+     *
+     * @return true nếu đã gọi loader
+     */
+    public boolean refreshIfExpiring(SearchRequest request, SearchLoader loader, Duration refreshAhead) throws IOException {
+        String key = cacheKey(request);
+        Long remaining = null;
+        if (isRedisAvailable()) {
+            try {
+                remaining = redisTemplate.getExpire(key, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                markRedisUnavailable(e);
+            }
+        }
+        if (remaining != null) {
+            if (remaining > refreshAhead.toSeconds()) {
+                return false;
+            }
+        } else {
+            // Không có Redis: dựa vào tuổi của bản trong L1
+            Optional<Duration> age = localCache.synchronous().policy().expireAfterWrite()
+                    .flatMap(expiration -> expiration.ageOf(key));
+            if (age.isPresent() && age.get().compareTo(localTtl.dividedBy(2)) < 0) {
+                return false;
+            }
+        }
+
+        SearchResponse response = loader.load();
+        localCache.put(key, CompletableFuture.completedFuture(response));
+        writeToRedis(key, response);
+        return true;
+    }
+
+    /**
+     * Định danh request không phụ thuộc generation, dùng để thống kê truy vấn phổ biến
+     */
+    public String fingerprint(SearchRequest request) {
+        return sha256(normalize(request, sorted(request.getCategories())));
+    }
+
+    /**
+     * Làm mất hiệu lực kết quả của các danh mục có sản phẩm thay đổi
+     * (kèm các trang không lọc theo danh mục), sau một chu kỳ refresh của index.
+     */
+    public void invalidateCategories(Collection<String> categoryNames) {
+        List<String> scopes = new ArrayList<>();
+        scopes.add(SCOPE_UNFILTERED);
+        categoryNames.stream()
+                .filter(Objects::nonNull)
+                .forEach(category -> scopes.add(SCOPE_CATEGORY + category));
+        scheduleInvalidation(scopes);
+    }
+
+    /**
+     * Làm mất hiệu lực toàn bộ kết quả, dùng khi không biết danh mục bị ảnh hưởng (ví dụ xóa sản phẩm)
+     */
+    public void invalidateAll() {
+        scheduleInvalidation(List.of(SCOPE_ALL));
+    }
+
+    /**
+     * Nhận thông báo tăng generation từ instance khác, lần đọc sau sẽ lấy giá trị mới từ Redis
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8).replace("\"", "");
+        Arrays.stream(body.split(",")).forEach(generations::invalidate);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        invalidationScheduler.shutdown();
+    }
+
+    private void scheduleInvalidation(List<String> scopes) {
+        invalidationScheduler.schedule(() -> bumpGenerations(scopes), invalidationDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void bumpGenerations(List<String> scopes) {
+        if (isRedisAvailable()) {
+            try {
+                for (String scope : scopes) {
+                    Long generation = redisTemplate.opsForHash().increment(GENERATIONS_KEY, scope, 1);
+                    generations.put(scope, generation);
+                }
+                redisTemplate.convertAndSend(INVALIDATION_CHANNEL, String.join(",", scopes));
+                log.debug("Invalidated search cache scopes: {}", scopes);
+                return;
+            } catch (Exception e) {
+                markRedisUnavailable(e);
+            }
+        }
+        // Không có Redis: chỉ làm mất hiệu lực cache của instance hiện tại
+        scopes.forEach(scope -> generations.asMap().merge(scope, 1L, Long::sum));
+    }
+
+    private long generation(String scope) {
+        Long cached = generations.getIfPresent(scope);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = 0;
+        if (isRedisAvailable()) {
+            try {
+                Object value = redisTemplate.opsForHash().get(GENERATIONS_KEY, scope);
+                if (value != null) {
+                    generation = Long.parseLong(value.toString());
+                }
+            } catch (Exception e) {
+                markRedisUnavailable(e);
+            }
+        }
+        Long previous = generations.asMap().putIfAbsent(scope, generation);
+        return previous != null ? previous : generation;
+    }
+
+    /**
+     * Key gồm generation của các phạm vi liên quan và hash của request đã chuẩn hóa
+     */
+    private String cacheKey(SearchRequest request) {
+        List<String> categories = sorted(request.getCategories());
+        return generationPrefix(RESULT_KEY_PREFIX, categories)
+                .append(sha256(normalize(request, categories))).toString();
+    }
+
+    /**
+     * Key của facet chỉ gồm bộ lọc, không có from/size/sort. Cùng generation với kết quả
+     * nên được invalidate cùng lúc khi sản phẩm trong danh mục thay đổi.
+     */
+    private String facetsKey(SearchRequest request) {
+        List<String> categories = sorted(request.getCategories());
+        return generationPrefix(FACETS_KEY_PREFIX, categories)
+                .append(sha256(normalizeFilters(request, categories))).toString();
+    }
+
+    private StringBuilder generationPrefix(String prefix, List<String> categories) {
+        StringBuilder key = new StringBuilder(prefix)
+                .append(generation(SCOPE_ALL));
+        if (categories.isEmpty()) {
+            key.append('.').append(generation(SCOPE_UNFILTERED));
+        } else {
+            for (String category : categories) {
+                key.append('.').append(generation(SCOPE_CATEGORY + category));
+            }
+        }
+        return key.append(':');
+    }
+
+    /**
+     * Chuẩn hóa request để các cách viết tương đương (hoa thường, khoảng trắng, thứ tự filter) dùng chung cache
+     */
+    private String normalize(SearchRequest request, List<String> categories) {
+        return normalizeFilters(request, categories)
+                + "|s=" + request.getSortOption()
+                + "|f=" + request.getFrom()
+                + "|n=" + request.getSize()
+                + "|fl=" + (request.getFields() != null ? request.getFields() : SearchRequest.FieldProfile.DETAIL)
+                + "|h=" + request.isHighlight()
+                + "|g=" + request.isIncludeAggregations();
+    }
+
+    private String normalizeFilters(SearchRequest request, List<String> categories) {
+        StringBuilder normalized = new StringBuilder();
+        String query = request.getQuery() == null ? "" : request.getQuery().trim().toLowerCase(Locale.ROOT);
+        normalized.append("q=").append(query.replaceAll("\\s+", " "));
+        normalized.append("|c=").append(categories);
+        normalized.append("|b=").append(request.getBrand() == null ? "" : request.getBrand().trim().toLowerCase(Locale.ROOT));
+
+        SearchRequest.PriceRange priceRange = request.getPriceRange();
+        if (priceRange != null) {
+            normalized.append("|p=").append(plain(priceRange.getMin())).append('-').append(plain(priceRange.getMax()));
+        }
+        if (request.getAttributes() != null && !request.getAttributes().isEmpty()) {
+            Map<String, List<String>> attributes = new TreeMap<>();
+            request.getAttributes().forEach((name, values) -> attributes.put(name, sorted(values)));
+            normalized.append("|a=").append(attributes);
+        }
+        return normalized.toString();
+    }
+
+    private SearchResponse readFromRedis(String key) {
+        if (!isRedisAvailable()) {
+            return null;
+        }
+        try {
+            Object value = redisTemplate.opsForValue().get(key);
+            return value instanceof SearchResponse ? (SearchResponse) value : null;
+        } catch (Exception e) {
+            markRedisUnavailable(e);
+            return null;
+        }
+    }
+
+    private void writeToRedis(String key, SearchResponse response) {
+        if (!isRedisAvailable()) {
+            return;
+        }
+        try {
+            redisTemplate.opsForValue().set(key, response, redisTtl);
+        } catch (Exception e) {
+            markRedisUnavailable(e);
+        }
+    }
+
+    private boolean isRedisAvailable() {
+        return System.currentTimeMillis() >= redisUnavailableUntil;
+    }
+
+    private void markRedisUnavailable(Exception e) {
+        log.warn("Redis unavailable for search cache, using local cache only: {}", e.getMessage());
+        redisUnavailableUntil = System.currentTimeMillis() + REDIS_BACKOFF_MS;
+    }
+
+    private SearchResponse await(CompletableFuture<SearchResponse> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("Interrupted while waiting for search result", e);
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new ElasticsearchException("Search failed", cause);
+        }
+    }
+
+    private static List<String> sorted(Collection<String> values) {
+        if (values == null) {
+            return List.of();
+        }
+        return values.stream().sorted().distinct().collect(Collectors.toList());
+    }
+
+    private static String plain(BigDecimal value) {
+        return value == null ? "" : value.stripTrailingZeros().toPlainString();
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,28 +1,40 @@
 package com.fourj.searchservice.service;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.Refresh;
 import co.elastic.clients.elasticsearch._types.Result;
 import co.elastic.clients.elasticsearch._types.SortOrder;
 import co.elastic.clients.elasticsearch._types.query_dsl.RangeQuery;
 import co.elastic.clients.elasticsearch._types.aggregations.AggregationRange;
 import co.elastic.clients.elasticsearch._types.query_dsl.*;
 import co.elastic.clients.elasticsearch.core.*;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.search.CompletionContext;
+import co.elastic.clients.elasticsearch.core.search.CompletionSuggestOption;
 import co.elastic.clients.elasticsearch.core.search.HighlightField;
+import co.elastic.clients.elasticsearch.core.msearch.MultiSearchResponseItem;
+import co.elastic.clients.elasticsearch.core.msearch.MultisearchBody;
 import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.ResponseBody;
+import co.elastic.clients.elasticsearch.core.search.Suggestion;
 import java.util.stream.Collectors;
 
 import co.elastic.clients.json.JsonData;
 import com.fourj.searchservice.config.ElasticsearchConfig;
 import com.fourj.searchservice.document.ProductDocument;
+import com.fourj.searchservice.dto.SearchRequest.FieldProfile;
 import com.fourj.searchservice.dto.SearchRequest.PriceRange;
+import com.fourj.searchservice.dto.SearchRequest.SortOption;
 import com.fourj.searchservice.dto.SearchResponse.FacetEntry;
+import com.fourj.searchservice.exception.SearchServiceException;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
 import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
@@ -31,6 +43,7 @@ import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import co.elastic.clients.elasticsearch.indices.*;
@@ -46,8 +59,35 @@ import com.fourj.searchservice.dto.ProductIndexDto;
 public class SearchService {
     
     private final ElasticsearchClient client;
+    private final ElasticsearchAsyncClient asyncClient;
     private final ElasticsearchConfig elasticsearchConfig;
     private final RedisTemplate<String, Object> redisTemplate;
+    private final IndexManagementService indexManagementService;
+    private final SearchResultCache searchResultCache;
+    private final HotQueryTracker hotQueryTracker;
+    private final ProductNameIndex productNameIndex;
+    private final SearchCursorCodec searchCursorCodec;
+    private final ProductReindexService productReindexService;
+    private final UserAffinityService userAffinityService;
+    private final LastKnownGoodStore lastKnownGoodStore;
+    private final LocalProductIndex localProductIndex;
+    private final ProductBulkIngester bulkIngester;
+
+    private static final String NAME_SUGGESTER = "name-suggest";
+    // Thương hiệu được lưu như một thuộc tính của sản phẩm
+    private static final String BRAND_ATTRIBUTE = "brand";
+    private static final String ATTRIBUTE_FACET_PREFIX = "attributes.";
+    private static final int ATTRIBUTE_FACET_NAMES = 20;
+    private static final int ATTRIBUTE_FACET_VALUES = 20;
+
+    // _source của từng FieldProfile, DETAIL lấy mọi trường trừ nameSuggest (chỉ dùng khi ghi)
+    private static final List<String> GRID_FIELDS = List.of(
+            "id", "name", "price", "originalPrice", "discountPercent", "imageUrl", "active", "inStock",
+            "rating", "soldCount");
+    private static final List<String> LIST_FIELDS = List.of(
+            "id", "name", "price", "originalPrice", "discountPercent", "imageUrl", "active", "inStock",
+            "rating", "soldCount", "reviewCount", "description", "categoryName", "sellerId", "tags");
+    private static final String SUGGEST_FIELD = "nameSuggest";
     
     /**
      * Tìm kiếm sản phẩm theo các tiêu chí
@@ -58,69 +98,51 @@ public class SearchService {
     public com.fourj.searchservice.dto.SearchResponse searchProducts(com.fourj.searchservice.dto.SearchRequest request) throws IOException {
         log.info("Search request received: query={}, categories={}", 
                 request.getQuery(), request.getCategories());
-        
+
+        hotQueryTracker.record(request);
+
+        // Kết quả cá nhân hóa khác nhau theo người dùng nên không đi qua cache dùng chung và cũng không được
+        // gộp request (single-flight): mỗi lần tìm RELEVANCE của người dùng có lịch sử mua là một lượt gọi Elasticsearch
+        SortOption sortOption = request.getSortOption();
+        if (sortOption == null || sortOption == SortOption.RELEVANCE) {
+            UserAffinityService.UserAffinity affinity = userAffinityService.lookup(request.getUserId());
+            if (!affinity.isEmpty()) {
+                return executeSearch(request, affinity);
+            }
+        }
+
+        // Request giống nhau dùng chung kết quả cache và chỉ gọi Elasticsearch một lần
+        return searchResultCache.get(request, () -> executeSearch(request));
+    }
+
+    /**
+     * Làm mới kết quả cache của một truy vấn phổ biến nếu sắp hết hạn
+     *
+     * @return true nếu đã gọi Elasticsearch
+     */
+    @CircuitBreaker(name = "elasticsearch")
+    public boolean refreshCachedSearch(com.fourj.searchservice.dto.SearchRequest request, Duration refreshAhead) throws IOException {
+        return searchResultCache.refreshIfExpiring(request, () -> executeSearch(request), refreshAhead);
+    }
+
+    private com.fourj.searchservice.dto.SearchResponse executeSearch(com.fourj.searchservice.dto.SearchRequest request) throws IOException {
+        return executeSearch(request, UserAffinityService.UserAffinity.EMPTY);
+    }
+
+    private com.fourj.searchservice.dto.SearchResponse executeSearch(com.fourj.searchservice.dto.SearchRequest request,
+                                                                     UserAffinityService.UserAffinity affinity) throws IOException {
         Instant start = Instant.now();
         
+        // Facet không phụ thuộc trang và cách sắp xếp: nếu bộ lọc đã có facet trong cache
+        // thì chỉ lấy trang kết quả, ngược lại tính luôn trong request này và lưu lại cho các trang sau
+        com.fourj.searchservice.dto.SearchResponse cachedFacets = request.isIncludeAggregations()
+                ? searchResultCache.getFacetsIfPresent(request)
+                : null;
+        boolean computeFacets = request.isIncludeAggregations() && cachedFacets == null;
+
         // Tìm kiếm từ Elasticsearch
-        SearchResponse<ProductIndexDto> response = client.search(s -> {
-            SearchRequest.Builder builder = new SearchRequest.Builder();
-            builder.index(elasticsearchConfig.getIndexSettings().getProducts().getName());
-            builder.query(buildQuery(request));
-            builder.from(request.getFrom());
-            builder.size(request.getSize());
-            
-            // Highlight settings
-            Map<String, HighlightField> highlightFields = new HashMap<>();
-            highlightFields.put("name", HighlightField.of(h -> h));
-            highlightFields.put("description", HighlightField.of(h -> h));
-            
-            builder.highlight(h -> h
-                    .fields(highlightFields)
-                    .preTags("<em>")
-                    .postTags("</em>")
-                    .requireFieldMatch(false));
-            
-            // Sorting tối giản
-            if (request.getSortOption() != null) {
-                switch (request.getSortOption()) {
-                    case PRICE_ASC:
-                        builder.sort(s1 -> s1.field(f -> f.field("price").order(SortOrder.Asc)));
-                        break;
-                    case PRICE_DESC:
-                        builder.sort(s1 -> s1.field(f -> f.field("price").order(SortOrder.Desc)));
-                        break;
-                    case RELEVANCE:
-                    default:
-                        builder.sort(s1 -> s1.score(sc -> sc.order(SortOrder.Desc)));
-                        break;
-                }
-            } else {
-                builder.sort(s1 -> s1.score(sc -> sc.order(SortOrder.Desc)));
-            }
-            
-            // Aggregations cơ bản
-            if (request.isIncludeAggregations()) {
-                // Aggregation cho danh mục
-                builder.aggregations("categories", a -> a
-                        .terms(t -> t.field("categoryName").size(50)));
-                
-                // Aggregation cho khoảng giá
-                builder.aggregations("price_ranges", a -> a
-                        .range(t -> t
-                                .field("price")
-                                .ranges(
-                                        AggregationRange.of(r -> r.to(500000.0)),
-                                        AggregationRange.of(r -> r.from(500000.0).to(1000000.0)),
-                                        AggregationRange.of(r -> r.from(1000000.0).to(2000000.0)),
-                                        AggregationRange.of(r -> r.from(2000000.0).to(5000000.0)),
-                                        AggregationRange.of(r -> r.from(5000000.0))
-                                )
-                        )
-                );
-            }
-            
-            return builder;
-        }, ProductIndexDto.class);
+        SearchResponse<ProductIndexDto> response = client.search(
+                buildSearchRequest(request, affinity, computeFacets), ProductIndexDto.class);
 
         assert response.hits().total() != null;
         log.info("Search returned {} hits for query: {}",
@@ -128,13 +150,262 @@ public class SearchService {
         
         // Chuyển đổi kết quả 
         com.fourj.searchservice.dto.SearchResponse result = convertToSearchResponse(response, request, start);
+        if (computeFacets) {
+            searchResultCache.putFacets(request, facetsOnly(result));
+        } else if (cachedFacets != null) {
+            result.setFacets(cachedFacets.getFacets());
+            // Tổng số kết quả chính xác đã có từ lần tính facet
+            result.setTotalHits(cachedFacets.getTotalHits());
+            result.setTotalHitsRelation(cachedFacets.getTotalHitsRelation());
+        }
+        if (affinity.isEmpty()) {
+            lastKnownGoodStore.remember(request, result);
+        }
         return result;
     }
+
+    /**
+     * Tải lại kết quả của một truy vấn đã được trả bản cũ trong lúc Elasticsearch lỗi
+     * và ghi đè vào cache để các request sau nhận kết quả mới
+     */
+    @CircuitBreaker(name = "elasticsearch")
+    public void revalidateSearch(com.fourj.searchservice.dto.SearchRequest request) throws IOException {
+        searchResultCache.put(request, executeSearch(request));
+    }
+
+    /**
+     * Tìm kiếm trong catalog của một người bán.
+     * Request mang routing = sellerId nên Elasticsearch chỉ hỏi đúng shard chứa sản phẩm của người bán;
+     * vẫn cần filter sellerId vì một shard chứa sản phẩm của nhiều người bán.
+     *
+     * @param includeInactive true để lấy cả sản phẩm đã ngừng bán, chỉ dành cho chính người bán hoặc admin
+     */
+    @CircuitBreaker(name = "elasticsearch")
+    @Timed("search.seller")
+    public com.fourj.searchservice.dto.SearchResponse searchSellerProducts(String sellerId,
+                                                                           com.fourj.searchservice.dto.SearchRequest request,
+                                                                           boolean includeInactive) throws IOException {
+        if (!indexManagementService.sellerIndexEnabled()) {
+            throw new SearchServiceException("Tìm kiếm theo người bán chưa được bật", "SELLER_SEARCH_DISABLED", 503);
+        }
+        Instant start = Instant.now();
+        SearchRequest.Builder builder = new SearchRequest.Builder();
+        builder.index(indexManagementService.sellerAlias());
+        builder.routing(sellerId);
+        builder.query(q -> q.bool(b -> b
+                .must(buildQuery(request, !includeInactive))
+                .filter(f -> f.term(t -> t.field("sellerId").value(sellerId)))));
+        builder.from(request.getFrom());
+        builder.size(request.getSize());
+        applySourceFilter(builder, request);
+        applyHighlight(builder, request);
+        applySort(builder, request);
+        applyTotalHitsCap(builder, request, false);
+
+        SearchResponse<ProductIndexDto> response = client.search(builder.build(), ProductIndexDto.class);
+        log.debug("Seller {} search returned {} hits", sellerId,
+                response.hits().total() != null ? response.hits().total().value() : 0);
+        return convertToSearchResponse(response, request, start);
+    }
+
+    /**
+     * Facet (và tổng số kết quả) của bộ lọc trong request, bỏ qua from/size/sort.
+     * Chạy với size=0 và được cache riêng theo bộ lọc, nên UI có thể tải facet một lần
+     * rồi lật trang bằng các request không có aggregation.
+     */
+    @CircuitBreaker(name = "elasticsearch", fallbackMethod = "getFacetsFallback")
+    @Timed("search.facets")
+    public com.fourj.searchservice.dto.SearchResponse getFacets(com.fourj.searchservice.dto.SearchRequest request) throws IOException {
+        return searchResultCache.getFacets(request, () -> executeFacetSearch(request));
+    }
+
+    public com.fourj.searchservice.dto.SearchResponse getFacetsFallback(com.fourj.searchservice.dto.SearchRequest request, Exception ex) {
+        log.error("Facet fallback triggered due to: {}", ex.getMessage());
+        return com.fourj.searchservice.dto.SearchResponse.builder()
+                .totalHits(0)
+                .products(Collections.emptyList())
+                .facets(Collections.emptyMap())
+                .searchTime("0ms")
+                .build();
+    }
+
+    private com.fourj.searchservice.dto.SearchResponse executeFacetSearch(com.fourj.searchservice.dto.SearchRequest request) throws IOException {
+        Instant start = Instant.now();
+        SearchResponse<ProductIndexDto> response = client.search(s -> {
+            s.index(elasticsearchConfig.getIndexSettings().getProducts().getAlias())
+                    .query(buildQuery(request))
+                    .size(0)
+                    .trackTotalHits(t -> t.enabled(true));
+            applyFacetAggregations(s);
+            return s;
+        }, ProductIndexDto.class);
+
+        assert response.hits().total() != null;
+        return com.fourj.searchservice.dto.SearchResponse.builder()
+                .totalHits(response.hits().total().value())
+                .totalHitsRelation(response.hits().total().relation().jsonValue())
+                .products(Collections.emptyList())
+                .facets(extractFacets(response))
+                .searchTime(Duration.between(start, Instant.now()).toMillis() + "ms")
+                .build();
+    }
+
+    private static com.fourj.searchservice.dto.SearchResponse facetsOnly(com.fourj.searchservice.dto.SearchResponse result) {
+        return com.fourj.searchservice.dto.SearchResponse.builder()
+                .totalHits(result.getTotalHits())
+                .totalHitsRelation(result.getTotalHitsRelation())
+                .products(Collections.emptyList())
+                .facets(result.getFacets())
+                .searchTime(result.getSearchTime())
+                .build();
+    }
+
+    /**
+     * Tìm kiếm nhiều request trong một lần gọi _msearch, ví dụ các carousel danh mục của trang chủ.
+     * Request đã có trong cache không được gửi lại. Kết quả trả về theo đúng thứ tự request;
+     * request nào lỗi thì nhận kết quả rỗng thay vì làm hỏng cả lô.
+     */
+    @CircuitBreaker(name = "elasticsearch", fallbackMethod = "multiSearchFallback")
+    @Timed("search.multi")
+    public CompletableFuture<List<com.fourj.searchservice.dto.SearchResponse>> multiSearch(
+            List<com.fourj.searchservice.dto.SearchRequest> requests) {
+        Instant start = Instant.now();
+        com.fourj.searchservice.dto.SearchResponse[] results = new com.fourj.searchservice.dto.SearchResponse[requests.size()];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            hotQueryTracker.record(requests.get(i));
+            results[i] = searchResultCache.getIfPresent(requests.get(i));
+            if (results[i] == null) {
+                pending.add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            return CompletableFuture.completedFuture(Arrays.asList(results));
+        }
+
+        MsearchRequest.Builder msearch = new MsearchRequest.Builder()
+                .index(elasticsearchConfig.getIndexSettings().getProducts().getAlias());
+        for (int i : pending) {
+            com.fourj.searchservice.dto.SearchRequest request = requests.get(i);
+            MultisearchBody body = toMultisearchBody(buildSearchRequest(
+                    request, UserAffinityService.UserAffinity.EMPTY, request.isIncludeAggregations()));
+            msearch.searches(item -> item.header(h -> h).body(body));
+        }
+
+        // Xử lý kết quả ngoài thread I/O của HTTP client vì có ghi cache xuống Redis
+        return asyncClient.msearch(msearch.build(), ProductIndexDto.class).thenApplyAsync(response -> {
+            List<MultiSearchResponseItem<ProductIndexDto>> items = response.responses();
+            for (int k = 0; k < pending.size(); k++) {
+                int index = pending.get(k);
+                com.fourj.searchservice.dto.SearchRequest request = requests.get(index);
+                MultiSearchResponseItem<ProductIndexDto> item = items.get(k);
+                if (item.isResult()) {
+                    results[index] = convertToSearchResponse(item.result(), request, start);
+                    searchResultCache.put(request, results[index]);
+                    lastKnownGoodStore.remember(request, results[index]);
+                } else {
+                    log.warn("Multi-search item {} failed: {}", index, item.failure().error().reason());
+                    results[index] = emptySearchResponse(request);
+                }
+            }
+            log.info("Multi-search: {} requests, {} sent to Elasticsearch in {} ms",
+                    requests.size(), pending.size(), Duration.between(start, Instant.now()).toMillis());
+            return Arrays.asList(results);
+        });
+    }
+
+    public CompletableFuture<List<com.fourj.searchservice.dto.SearchResponse>> multiSearchFallback(
+            List<com.fourj.searchservice.dto.SearchRequest> requests, Exception ex) {
+        log.error("Multi-search fallback triggered due to: {}", ex.getMessage());
+        return CompletableFuture.completedFuture(requests.stream()
+                .map(this::staleOrEmptyResponse)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Request tìm kiếm đầy đủ (query, phân trang, sắp xếp, highlight, aggregation) cho một SearchRequest
+     */
+    private SearchRequest buildSearchRequest(com.fourj.searchservice.dto.SearchRequest request,
+                                             UserAffinityService.UserAffinity affinity,
+                                             boolean withFacets) {
+        SearchRequest.Builder builder = new SearchRequest.Builder();
+        builder.index(elasticsearchConfig.getIndexSettings().getProducts().getAlias());
+        builder.query(applyAffinityBoost(buildQuery(request), affinity));
+        builder.from(request.getFrom());
+        builder.size(request.getSize());
+        applySourceFilter(builder, request);
+        applyHighlight(builder, request);
+        applySort(builder, request);
+        applyTotalHitsCap(builder, request, withFacets);
+
+        if (withFacets) {
+            applyFacetAggregations(builder);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Aggregation cho facet: danh mục, khoảng giá và thuộc tính
+     */
+    private void applyFacetAggregations(SearchRequest.Builder builder) {
+        // Aggregation cho danh mục
+        builder.aggregations("categories", a -> a
+                .terms(t -> t.field("categoryName").size(50)));
+        
+        // Aggregation cho khoảng giá
+        builder.aggregations("price_ranges", a -> a
+                .range(t -> t
+                        .field("price")
+                        .ranges(
+                                AggregationRange.of(r -> r.to(500000.0)),
+                                AggregationRange.of(r -> r.from(500000.0).to(1000000.0)),
+                                AggregationRange.of(r -> r.from(1000000.0).to(2000000.0)),
+                                AggregationRange.of(r -> r.from(2000000.0).to(5000000.0)),
+                                AggregationRange.of(r -> r.from(5000000.0))
+                        )
+                )
+        );
+
+        // Facet thuộc tính: tên -> giá trị, reverse_nested đếm số sản phẩm thay vì số thuộc tính
+        builder.aggregations("attributes", a -> a
+                .nested(n -> n.path("attributes"))
+                .aggregations("names", na -> na
+                        .terms(t -> t.field("attributes.name").size(ATTRIBUTE_FACET_NAMES))
+                        .aggregations("values", va -> va
+                                .terms(t -> t.field("attributes.value").size(ATTRIBUTE_FACET_VALUES))
+                                .aggregations("products", pa -> pa.reverseNested(r -> r)))));
+    }
+
+    /**
+     * Body của một mục trong _msearch, lấy từ request tìm kiếm đơn để hai đường dùng chung logic
+     */
+    private static MultisearchBody toMultisearchBody(SearchRequest search) {
+        return MultisearchBody.of(b -> {
+            b.query(search.query())
+                    .from(search.from())
+                    .size(search.size())
+                    .source(search.source())
+                    .highlight(search.highlight())
+                    .trackTotalHits(search.trackTotalHits());
+            if (!search.sort().isEmpty()) {
+                b.sort(search.sort());
+            }
+            if (!search.aggregations().isEmpty()) {
+                b.aggregations(search.aggregations());
+            }
+            return b;
+        });
+    }
     
     /**
      * Xây dựng query đơn giản cho tìm kiếm cơ bản
      */
     private Query buildQuery(com.fourj.searchservice.dto.SearchRequest request) {
+        return buildQuery(request, true);
+    }
+
+    private Query buildQuery(com.fourj.searchservice.dto.SearchRequest request, boolean activeOnly) {
         BoolQuery.Builder boolQuery = new BoolQuery.Builder();
         
         // Nếu không có query text, trả về tất cả sản phẩm
@@ -153,11 +424,19 @@ public class SearchService {
                     .fuzziness("AUTO"))
                     ._toQuery());
 
-            // 2. Wildcard query để tìm với dấu *
-            boolQuery.should(WildcardQuery.of(w -> w
-                    .field("name")
-                    .value("*" + queryText + "*")
-                    .caseInsensitive(true))
+            // 2. Khớp một phần từ qua các subfield n-gram thay vì wildcard "*text*" phải duyệt toàn bộ term dictionary
+            // Đầu từ: mỗi từ của query là tiền tố của một từ trong tên
+            boolQuery.should(MatchQuery.of(m -> m
+                    .field("name." + IndexManagementService.NAME_PREFIX_SUBFIELD)
+                    .query(queryText)
+                    .operator(Operator.And)
+                    .boost(2.0f))
+                    ._toQuery());
+            // Giữa từ: tên chứa mọi trigram của query (query ngắn hơn 3 ký tự đã được nhánh trên xử lý)
+            boolQuery.should(MatchQuery.of(m -> m
+                    .field("name." + IndexManagementService.NAME_INFIX_SUBFIELD)
+                    .query(queryText)
+                    .operator(Operator.And))
                     ._toQuery());
 
             // Đặt minimum_should_match để đảm bảo ít nhất một query phải khớp
@@ -197,63 +476,72 @@ public class SearchService {
             boolQuery.filter(rangeQuery);
         }
 
-
-
-
+        // Lọc theo thuộc tính trong filter context: không tính điểm và được Elasticsearch cache lại.
+        // Các giá trị của cùng một thuộc tính là OR, các thuộc tính khác nhau là AND
+        if (request.getAttributes() != null) {
+            request.getAttributes().forEach((name, values) -> {
+                if (StringUtils.hasText(name) && values != null && !values.isEmpty()) {
+                    boolQuery.filter(attributeFilter(name, values, false));
+                }
+            });
+        }
+        if (StringUtils.hasText(request.getBrand())) {
+            boolQuery.filter(attributeFilter(BRAND_ATTRIBUTE, List.of(request.getBrand().trim()), true));
+        }
         
         // Chỉ lấy các sản phẩm đang active
-        boolQuery.filter(TermQuery.of(t -> t
-                .field("active")
-                .value(true))
-                ._toQuery());
+        if (activeOnly) {
+            boolQuery.filter(TermQuery.of(t -> t
+                    .field("active")
+                    .value(true))
+                    ._toQuery());
+        }
         
         return boolQuery.build()._toQuery();
     }
 
+    /**
+     * Tên và giá trị phải khớp trên cùng một thuộc tính (nested), không phải trên hai thuộc tính khác nhau
+     */
+    private Query attributeFilter(String name, List<String> values, boolean caseInsensitive) {
+        Query valueQuery = values.size() == 1
+                ? TermQuery.of(t -> t
+                        .field("attributes.value")
+                        .value(values.get(0))
+                        .caseInsensitive(caseInsensitive))._toQuery()
+                : TermsQuery.of(t -> t
+                        .field("attributes.value")
+                        .terms(f -> f.value(values.stream().map(FieldValue::of).collect(Collectors.toList()))))
+                        ._toQuery();
+        return NestedQuery.of(n -> n
+                .path("attributes")
+                .query(q -> q.bool(b -> b
+                        .filter(TermQuery.of(t -> t
+                                .field("attributes.name")
+                                .value(name)
+                                .caseInsensitive(caseInsensitive))._toQuery())
+                        .filter(valueQuery)))
+                .scoreMode(ChildScoreMode.None))
+                ._toQuery();
+    }
+
     /**
      * Chuyển đổi kết quả Elasticsearch sang DTO SearchResponse (đơn giản hóa)
      */
     private com.fourj.searchservice.dto.SearchResponse convertToSearchResponse(
-            SearchResponse<ProductIndexDto> response,
+            ResponseBody<ProductIndexDto> response,
             com.fourj.searchservice.dto.SearchRequest request,
             Instant startTime) {
         
         List<ProductIndexDto> products = response.hits().hits().stream()
-                .map(Hit::source)
+                .map(SearchService::toProduct)
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
         
-        Map<String, List<FacetEntry>> facets = new HashMap<>();
-        
-        // Xử lý facets nếu request yêu cầu và có kết quả aggregations
-        if (request.isIncludeAggregations() && response.aggregations() != null) {
-            // Xử lý category facets
-            if (response.aggregations().containsKey("categories")) {
-                facets.put("categories", new ArrayList<>());
-                response.aggregations().get("categories").sterms().buckets().array()
-                        .forEach(bucket -> facets.get("categories").add(
-                                    FacetEntry.builder()
-                                            .key(bucket.key().stringValue())
-                                            .count(bucket.docCount())
-                                        .build()));
-            }
-            
-            // Xử lý price_ranges facets
-            if (response.aggregations().containsKey("price_ranges")) {
-                facets.put("price_ranges", new ArrayList<>());
-                response.aggregations().get("price_ranges").range().buckets().array()
-                        .forEach(bucket -> {
-                            String key = (bucket.from() != null ? bucket.from() : "0") + 
-                                    "-" + 
-                                    (bucket.to() != null ? bucket.to() : "∞");
-                            facets.get("price_ranges").add(
-                                    FacetEntry.builder()
-                                            .key(key)
-                                            .count(bucket.docCount())
-                                            .build());
-                        });
-            }
-        }
+        // Facet chỉ có khi request có tính aggregation
+        Map<String, List<FacetEntry>> facets = request.isIncludeAggregations()
+                ? extractFacets(response)
+                : new HashMap<>();
         
         // Tính thời gian thực thi
         Duration searchDuration = Duration.between(startTime, Instant.now());
@@ -262,6 +550,7 @@ public class SearchService {
         assert response.hits().total() != null;
         return com.fourj.searchservice.dto.SearchResponse.builder()
                 .totalHits(response.hits().total().value())
+                .totalHitsRelation(response.hits().total().relation().jsonValue())
                 .products(products)
                 .page(request.getFrom() / request.getSize())
                 .size(request.getSize())
@@ -269,28 +558,285 @@ public class SearchService {
                 .searchTime(searchTime)
                 .build();
     }
-    
+
     /**
-     * Tạo cache key từ search request
+     * Đọc facet từ kết quả aggregation của applyFacetAggregations
      */
-    private String generateCacheKey(com.fourj.searchservice.dto.SearchRequest request) {
-        return "search:" + 
-                Objects.hashCode(request.getQuery()) + ":" +
-                Objects.hashCode(request.getCategories()) + ":" +
-                Objects.hashCode(request.getBrand()) + ":" +
-                Objects.hashCode(request.getPriceRange()) + ":" + 
-                Objects.hashCode(request.getAttributes()) + ":" +
-                request.getSortOption() + ":" +
-                request.getFrom() + ":" +
-                request.getSize();
+    private Map<String, List<FacetEntry>> extractFacets(ResponseBody<ProductIndexDto> response) {
+        Map<String, List<FacetEntry>> facets = new HashMap<>();
+        if (response.aggregations() == null) {
+            return facets;
+        }
+
+        // Xử lý category facets
+        if (response.aggregations().containsKey("categories")) {
+            facets.put("categories", new ArrayList<>());
+            response.aggregations().get("categories").sterms().buckets().array()
+                    .forEach(bucket -> facets.get("categories").add(
+                                FacetEntry.builder()
+                                        .key(bucket.key().stringValue())
+                                        .count(bucket.docCount())
+                                    .build()));
+        }
+        
+        // Xử lý price_ranges facets
+        if (response.aggregations().containsKey("price_ranges")) {
+            facets.put("price_ranges", new ArrayList<>());
+            response.aggregations().get("price_ranges").range().buckets().array()
+                    .forEach(bucket -> {
+                        String key = (bucket.from() != null ? bucket.from() : "0") + 
+                                "-" + 
+                                (bucket.to() != null ? bucket.to() : "∞");
+                        facets.get("price_ranges").add(
+                                FacetEntry.builder()
+                                        .key(key)
+                                        .count(bucket.docCount())
+                                        .build());
+                    });
+        }
+
+        // Xử lý facets thuộc tính, mỗi tên thuộc tính là một facet "attributes.<tên>"
+        if (response.aggregations().containsKey("attributes")) {
+            response.aggregations().get("attributes").nested().aggregations().get("names").sterms()
+                    .buckets().array()
+                    .forEach(nameBucket -> {
+                        List<FacetEntry> entries = new ArrayList<>();
+                        nameBucket.aggregations().get("values").sterms().buckets().array()
+                                .forEach(valueBucket -> entries.add(
+                                        FacetEntry.builder()
+                                                .key(valueBucket.key().stringValue())
+                                                .count(valueBucket.aggregations().get("products")
+                                                        .reverseNested().docCount())
+                                                .build()));
+                        facets.put(ATTRIBUTE_FACET_PREFIX + nameBucket.key().stringValue(), entries);
+                    });
+        }
+
+        return facets;
     }
     
+    /**
+     * Phân trang theo cursor: trang đầu mở point-in-time, các trang sau dùng search_after trên cùng PIT
+     * nên chi phí mỗi trang không tăng theo độ sâu và không bị giới hạn bởi max_result_window.
+     * Client gửi lại cùng request kèm nextCursor của trang trước; nextCursor null nghĩa là đã hết kết quả.
+     */
+    @CircuitBreaker(name = "elasticsearch")
+    @Timed("search.products.cursor")
+    public com.fourj.searchservice.dto.SearchResponse searchWithCursor(com.fourj.searchservice.dto.SearchRequest request) throws IOException {
+        Instant start = Instant.now();
+        String keepAlive = elasticsearchConfig.getCursorKeepAlive();
+
+        SearchCursorCodec.Cursor cursor = StringUtils.hasText(request.getCursor())
+                ? searchCursorCodec.decode(request.getCursor())
+                : null;
+        String pitId = cursor != null
+                ? cursor.getPitId()
+                : client.openPointInTime(o -> o
+                        .index(elasticsearchConfig.getIndexSettings().getProducts().getAlias())
+                        .keepAlive(t -> t.time(keepAlive))).id();
+
+        SearchResponse<ProductIndexDto> response;
+        try {
+            response = client.search(s -> {
+                SearchRequest.Builder builder = new SearchRequest.Builder();
+                builder.pit(p -> p.id(pitId).keepAlive(t -> t.time(keepAlive)));
+                builder.query(buildQuery(request));
+                builder.size(request.getSize());
+                applySourceFilter(builder, request);
+                applyHighlight(builder, request);
+                applySort(builder, request);
+                // Tiebreaker ổn định để các hit cùng giá trị sort không bị lặp hay bỏ sót giữa các trang
+                builder.sort(s1 -> s1.field(f -> f.field("_shard_doc").order(SortOrder.Asc)));
+                if (cursor != null) {
+                    builder.searchAfter(cursor.getSearchAfter());
+                    // Chỉ trang đầu cần tổng số kết quả
+                    builder.trackTotalHits(t -> t.enabled(false));
+                } else {
+                    applyTotalHitsCap(builder, request, false);
+                }
+                return builder;
+            }, ProductIndexDto.class);
+        } catch (co.elastic.clients.elasticsearch._types.ElasticsearchException e) {
+            if (cursor != null && e.status() == 404) {
+                throw new SearchServiceException("Cursor đã hết hạn, vui lòng tìm kiếm lại từ đầu",
+                        "CURSOR_EXPIRED", 410, e);
+            }
+            throw e;
+        }
+
+        List<Hit<ProductIndexDto>> hits = response.hits().hits();
+        String nextPitId = response.pitId() != null ? response.pitId() : pitId;
+        String nextCursor = null;
+        if (hits.size() == request.getSize()) {
+            nextCursor = searchCursorCodec.encode(nextPitId, hits.get(hits.size() - 1).sort());
+        } else {
+            // Trang cuối: giải phóng PIT thay vì chờ hết keep-alive
+            closePointInTime(nextPitId);
+        }
+
+        return com.fourj.searchservice.dto.SearchResponse.builder()
+                .totalHits(response.hits().total() != null ? response.hits().total().value() : -1)
+                .totalHitsRelation(response.hits().total() != null ? response.hits().total().relation().jsonValue() : null)
+                .products(hits.stream().map(SearchService::toProduct).filter(Objects::nonNull).collect(Collectors.toList()))
+                .size(request.getSize())
+                .facets(Collections.emptyMap())
+                .nextCursor(nextCursor)
+                .searchTime(Duration.between(start, Instant.now()).toMillis() + "ms")
+                .build();
+    }
+
+    private void closePointInTime(String pitId) {
+        try {
+            client.closePointInTime(c -> c.id(pitId));
+        } catch (Exception e) {
+            log.warn("Could not close point in time: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sản phẩm của một hit kèm đoạn trích highlight nếu có
+     */
+    private static ProductIndexDto toProduct(Hit<ProductIndexDto> hit) {
+        ProductIndexDto product = hit.source();
+        if (product != null && !hit.highlight().isEmpty()) {
+            product.setHighlights(hit.highlight());
+        }
+        return product;
+    }
+
+    /**
+     * Chỉ lấy các trường _source mà màn hình cần, giảm dung lượng response và thời gian fetch phase.
+     * Client không chọn profile nhận đủ mọi trường như trước (giống DETAIL), chỉ cắt bớt khi client yêu cầu.
+     */
+    private void applySourceFilter(SearchRequest.Builder builder, com.fourj.searchservice.dto.SearchRequest request) {
+        FieldProfile profile = request.getFields() != null ? request.getFields() : FieldProfile.DETAIL;
+        switch (profile) {
+            case GRID:
+                builder.source(s -> s.filter(f -> f.includes(GRID_FIELDS)));
+                break;
+            case DETAIL:
+                builder.source(s -> s.filter(f -> f.excludes(SUGGEST_FIELD)));
+                break;
+            case LIST:
+            default:
+                builder.source(s -> s.filter(f -> f.includes(LIST_FIELDS)));
+                break;
+        }
+    }
+
+    /**
+     * Highlight phải phân tích lại nội dung của từng hit nên chỉ chạy khi client yêu cầu và có từ khóa.
+     * name trả nguyên trường, description cắt theo fragment-size; profile GRID không hiển thị mô tả nên bỏ qua.
+     */
+    private void applyHighlight(SearchRequest.Builder builder, com.fourj.searchservice.dto.SearchRequest request) {
+        if (!request.isHighlight() || !StringUtils.hasText(request.getQuery())) {
+            return;
+        }
+        ElasticsearchConfig.HighlightSettings settings = elasticsearchConfig.getHighlight();
+        Map<String, HighlightField> highlightFields = new HashMap<>();
+        highlightFields.put("name", HighlightField.of(h -> h.numberOfFragments(0)));
+        if (request.getFields() != FieldProfile.GRID) {
+            highlightFields.put("description", HighlightField.of(h -> h
+                    .fragmentSize(settings.getFragmentSize())
+                    .numberOfFragments(settings.getNumberOfFragments())));
+        }
+
+        builder.highlight(h -> h
+                .fields(highlightFields)
+                .preTags("<em>")
+                .postTags("</em>")
+                .requireFieldMatch(false));
+    }
+
+    private void applySort(SearchRequest.Builder builder, com.fourj.searchservice.dto.SearchRequest request) {
+        SortOption sortOption = request.getSortOption() != null ? request.getSortOption() : SortOption.RELEVANCE;
+        switch (sortOption) {
+            case PRICE_ASC:
+                builder.sort(s1 -> s1.field(f -> f.field("price").order(SortOrder.Asc)));
+                break;
+            case PRICE_DESC:
+                builder.sort(s1 -> s1.field(f -> f.field("price").order(SortOrder.Desc)));
+                break;
+            case NEWEST:
+                builder.sort(s1 -> s1.field(f -> f.field("createdAt").order(SortOrder.Desc)));
+                break;
+            case BEST_SELLING:
+                // Sản phẩm chưa bán được xếp cuối, cùng số lượng bán thì theo độ liên quan
+                builder.sort(s1 -> s1.field(f -> f.field("soldCount").order(SortOrder.Desc).missing("_last")));
+                builder.sort(s1 -> s1.score(sc -> sc.order(SortOrder.Desc)));
+                break;
+            case HIGHEST_RATED:
+                builder.sort(s1 -> s1.field(f -> f.field("rating").order(SortOrder.Desc).missing("_last")));
+                builder.sort(s1 -> s1.field(f -> f.field("reviewCount").order(SortOrder.Desc).missing("_last")));
+                builder.sort(s1 -> s1.score(sc -> sc.order(SortOrder.Desc)));
+                break;
+            case RELEVANCE:
+            default:
+                builder.sort(s1 -> s1.score(sc -> sc.order(SortOrder.Desc)));
+                break;
+        }
+    }
+
+    /**
+     * Tăng điểm sản phẩm thuộc các danh mục người dùng hay mua. Điểm gốc được nhân với
+     * 1 + boost * trọng số tương đối của danh mục, nên thứ tự trong cùng danh mục không đổi.
+     */
+    private Query applyAffinityBoost(Query query, UserAffinityService.UserAffinity affinity) {
+        if (affinity.isEmpty()) {
+            return query;
+        }
+        double boost = userAffinityService.getBoost();
+        List<FunctionScore> functions = new ArrayList<>(affinity.size());
+        for (int i = 0; i < affinity.size(); i++) {
+            String category = affinity.category(i);
+            double weight = 1 + boost * affinity.normalizedWeight(i);
+            functions.add(FunctionScore.of(f -> f
+                    .filter(TermQuery.of(t -> t.field("categoryName").value(category))._toQuery())
+                    .weight(weight)));
+        }
+        return FunctionScoreQuery.of(fs -> fs
+                .query(query)
+                .functions(functions)
+                .scoreMode(FunctionScoreMode.Max)
+                .boostMode(FunctionBoostMode.Multiply))._toQuery();
+    }
+
+    /**
+     * Khi sắp xếp theo trường, chỉ đếm chính xác tới một ngưỡng để shard có thể bỏ qua các doc
+     * không thể lọt vào top: dừng sớm nếu thứ tự trùng index sort (createdAt), hoặc bỏ qua theo
+     * BKD cho các trường số như price. Aggregation cần duyệt mọi hit nên khi đó vẫn đếm đủ.
+     */
+    private void applyTotalHitsCap(SearchRequest.Builder builder, com.fourj.searchservice.dto.SearchRequest request,
+                                   boolean withAggregations) {
+        SortOption sortOption = request.getSortOption();
+        if (sortOption == null || sortOption == SortOption.RELEVANCE || withAggregations) {
+            return;
+        }
+        builder.trackTotalHits(t -> t.count(elasticsearchConfig.getSortedTotalHitsCap()));
+    }
+
     /**
      * Fallback method khi Elasticsearch không khả dụng
      */
     public com.fourj.searchservice.dto.SearchResponse searchProductsFallback(com.fourj.searchservice.dto.SearchRequest request, Exception ex) {
         log.error("Search fallback triggered due to: {}", ex.getMessage());
-        
+        return staleOrEmptyResponse(request);
+    }
+
+    /**
+     * Kết quả khi không gọi được Elasticsearch, theo thứ tự: index cục bộ (nếu bật và hỗ trợ bộ lọc),
+     * kết quả thành công gần nhất của truy vấn (stale=true), kết quả rỗng
+     */
+    private com.fourj.searchservice.dto.SearchResponse staleOrEmptyResponse(com.fourj.searchservice.dto.SearchRequest request) {
+        com.fourj.searchservice.dto.SearchResponse local = localProductIndex.search(request);
+        if (local != null) {
+            return local;
+        }
+        com.fourj.searchservice.dto.SearchResponse stale = lastKnownGoodStore.recall(request);
+        return stale != null ? stale : emptySearchResponse(request);
+    }
+
+    private com.fourj.searchservice.dto.SearchResponse emptySearchResponse(com.fourj.searchservice.dto.SearchRequest request) {
         return com.fourj.searchservice.dto.SearchResponse.builder()
                 .totalHits(0)
                 .products(Collections.emptyList())
@@ -302,36 +848,45 @@ public class SearchService {
     }
     
     /**
-     * Lấy suggestions cho auto-complete (đơn giản hóa)
+     * Lấy suggestions cho auto-complete (đơn giản hóa).
+     * Không cache qua Redis: index tên cục bộ trả lời nhanh hơn một lượt Redis,
+     * còn completion suggester chỉ đọc FST trong bộ nhớ của Elasticsearch.
      */
-    @Cacheable(value = "suggestions", key = "#prefix")
-    public List<String> getSuggestions(String prefix, int size) {
+    public List<String> getSuggestions(String prefix, String category, int size) {
+        if (productNameIndex.isReady()) {
+            return productNameIndex.suggest(prefix, category, size);
+        }
+
         try {
-            log.info("Getting suggestions for prefix: '{}'", prefix);
-            String normalizedPrefix = prefix.toLowerCase().trim();
-            
-            // Sử dụng prefix query đơn giản
+            log.debug("Getting suggestions for prefix: '{}'", prefix);
+            // Completion suggester đọc FST trong bộ nhớ của Elasticsearch, không cần chạy query và tải document
             SearchResponse<ProductIndexDto> response = client.search(s -> s
-                .index(elasticsearchConfig.getIndexSettings().getProducts().getName())
-                .query(q -> q
-                    .prefix(p -> p
-                        .field("name")
-                        .value(normalizedPrefix)
-                    )
-                )
-                .size(size),
+                .index(elasticsearchConfig.getIndexSettings().getProducts().getAlias())
+                .source(src -> src.fetch(false))
+                .suggest(sg -> sg.suggesters(NAME_SUGGESTER, fs -> fs
+                    .prefix(prefix.trim())
+                    .completion(c -> {
+                        c.field("nameSuggest")
+                            .size(size)
+                            .skipDuplicates(true);
+                        if (StringUtils.hasText(category)) {
+                            c.contexts(ProductDocument.SUGGEST_CATEGORY_CONTEXT, List.of(
+                                CompletionContext.of(cc -> cc.context(ctx -> ctx.category(category)))));
+                        }
+                        return c;
+                    })
+                )),
                 ProductIndexDto.class
             );
-            
-            List<String> suggestions = response.hits().hits().stream()
-                .map(hit -> {
-                    assert hit.source() != null;
-                    return hit.source().getName();
-                })
+
+            List<String> suggestions = response.suggest().getOrDefault(NAME_SUGGESTER, Collections.emptyList()).stream()
+                .filter(Suggestion::isCompletion)
+                .flatMap(suggestion -> suggestion.completion().options().stream())
+                .map(CompletionSuggestOption::text)
                 .distinct()
                 .collect(Collectors.toList());
-                
-            log.info("Found {} suggestions for prefix: '{}'", suggestions.size(), prefix);
+
+            log.debug("Found {} suggestions for prefix: '{}'", suggestions.size(), prefix);
             return suggestions;
         } catch (Exception e) {
             log.error("Error getting suggestions for prefix: '{}'", prefix, e);
@@ -340,182 +895,119 @@ public class SearchService {
     }
     
     /**
-     * Tạo mới hoặc xóa và tạo lại index
+     * Dựng lại index sản phẩm sang phiên bản mới ở background, alias chỉ được chuyển khi chép xong
+     *
+     * @return tên index mới
      */
-    public boolean recreateIndex() throws IOException {
-        String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
-        log.info("Recreating index: {}", indexName);
-        
-        try {
-            // Kiểm tra xem index đã tồn tại chưa
-            boolean exists = client.indices().exists(e -> e.index(indexName)).value();
-            
-            // Nếu đã tồn tại thì xóa đi
-            if (exists) {
-                log.info("Index {} exists, deleting", indexName);
-                client.indices().delete(d -> d.index(indexName));
-            }
-            
-            // Tạo index mới với mapping và settings đơn giản
-            CreateIndexResponse response = client.indices().create(c -> c
-                .index(indexName)
-                .settings(s -> s
-                    .numberOfShards("1")  // Đơn giản hóa, chỉ dùng 1 shard
-                    .numberOfReplicas("0") // Không cần replica trong môi trường dev
-                    .refreshInterval(t -> t.time("1s")) // Refresh nhanh hơn
-                    .analysis(a -> a
-                        .analyzer("standard_lowercase", sa -> sa
-                            .custom(ca -> ca
-                                .tokenizer("standard")
-                                .filter("lowercase")
-                            )
-                        )
-                    )
-                )
-                .mappings(m -> m
-                    .properties("id", p -> p.keyword(k -> k))
-                    .properties("name", p -> p.text(t -> t
-                        .analyzer("standard_lowercase")
-                        .fields("keyword", f -> f.keyword(k -> k))
-                    ))
-                    .properties("description", p -> p.text(t -> t
-                        .analyzer("standard_lowercase")
-                    ))
-                    .properties("price", p -> p.double_(d -> d))
-                    .properties("imageUrl", p -> p.keyword(k -> k))
-                    .properties("categoryName", p -> p.keyword(k -> k))
-                    .properties("active", p -> p.boolean_(b -> b))
-                    .properties("inStock", p -> p.boolean_(b -> b))
-                    .properties("rating", p -> p.float_(f -> f))
-                )
-            );
-            
-            log.info("Index {} created successfully: {}", indexName, response.acknowledged());
-            return response.acknowledged();
-        } catch (Exception e) {
-            log.error("Error recreating index {}: {}", indexName, e.getMessage(), e);
-            throw e;
-        }
+    public String recreateIndex() throws IOException {
+        String targetIndex = productReindexService.startReindex();
+        log.info("Reindex started: {} -> {}", indexManagementService.productAlias(), targetIndex);
+        return targetIndex;
     }
     
     /**
      * Lấy thông tin về trạng thái của index
      */
     public Map<String, Object> getIndexStatus() throws IOException {
-        String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
+        String alias = elasticsearchConfig.getIndexSettings().getProducts().getAlias();
         Map<String, Object> status = new HashMap<>();
         
         try {
-            // Kiểm tra xem index đã tồn tại chưa
-            boolean exists = client.indices().exists(e -> e.index(indexName)).value();
-            status.put("exists", exists);
+            List<String> indices = indexManagementService.currentProductIndices();
+            status.put("alias", alias);
+            status.put("exists", !indices.isEmpty());
+            status.put("indices", indices);
+            status.put("reindex", productReindexService.getStatus());
             
-            if (exists) {
-                // Lấy statistics về index
-                GetIndexResponse indexResponse = client.indices().get(g -> g.index(indexName));
-                IndexState indexState = indexResponse.get(indexName);
-                
-                // Lấy settings
-                assert indexState != null;
-                if (indexState.settings() != null) {
-                    IndexSettings settings = indexState.settings();
-                    Map<String, Object> settingsMap = new HashMap<>();
-                    
-                    settingsMap.put("number_of_shards", settings.numberOfShards());
-                    settingsMap.put("number_of_replicas", settings.numberOfReplicas());
-                    settingsMap.put("refresh_interval", settings.refreshInterval());
-                    
-                    status.put("settings", settingsMap);
-                }
-                
-                // Lấy mappings
-                if (indexState.mappings() != null) {
-                    status.put("mappings", "Available");
-                }
+            if (!indices.isEmpty()) {
+                // Lấy settings của index đang nằm sau alias
+                GetIndexResponse indexResponse = client.indices().get(g -> g.index(alias));
+                Map<String, Object> settingsByIndex = new HashMap<>();
+                indexResponse.result().forEach((indexName, indexState) -> {
+                    if (indexState.settings() != null) {
+                        IndexSettings settings = indexState.settings().index() != null
+                                ? indexState.settings().index() : indexState.settings();
+                        Map<String, Object> settingsMap = new HashMap<>();
+                        
+                        settingsMap.put("number_of_shards", settings.numberOfShards());
+                        settingsMap.put("number_of_replicas", settings.numberOfReplicas());
+                        settingsMap.put("refresh_interval", settings.refreshInterval());
+                        settingsMap.put("mappings", indexState.mappings() != null ? "Available" : "Missing");
+                        
+                        settingsByIndex.put(indexName, settingsMap);
+                    }
+                });
+                status.put("settings", settingsByIndex);
                 
                 // Lấy số lượng documents
-                CountResponse countResponse = client.count(c -> c.index(indexName));
+                CountResponse countResponse = client.count(c -> c.index(alias));
                 status.put("document_count", countResponse.count());
             }
             
             return status;
         } catch (Exception e) {
-            log.error("Error getting index status for {}: {}", indexName, e.getMessage(), e);
+            log.error("Error getting index status for {}: {}", alias, e.getMessage(), e);
             throw e;
         }
     }
     
     /**
-     * Index một sản phẩm vào Elasticsearch
+     * Index một sản phẩm vào Elasticsearch, xem bulkIndexProducts
+     *
+     * @param waitForRefresh true nếu phía gọi cần đọc được ngay dữ liệu vừa ghi (refresh=wait_for),
+     *                       false để dựa vào refresh_interval của index
      */
-    public boolean indexProduct(ProductIndexDto product) throws IOException {
-        String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
-        
-        try {
-            // Kiểm tra xem index đã tồn tại chưa, nếu chưa thì tạo mới
-            boolean exists = client.indices().exists(e -> e.index(indexName)).value();
-            if (!exists) {
-                recreateIndex();
-            }
-            
-            // Index sản phẩm
-            log.info("Indexing product: {}", product.getId());
-            IndexResponse response = client.index(i -> i
-                .index(indexName)
-                .id(product.getId())
-                .document(product)
-            );
-            
-            // Refresh index để đảm bảo dữ liệu có sẵn ngay lập tức cho tìm kiếm
-            client.indices().refresh(r -> r.index(indexName));
-            
-            log.info("Successfully indexed product: {}, result: {}", product.getId(), response.result().toString());
-            return true;
-        } catch (Exception e) {
-            log.error("Error indexing product {}: {}", product.getId(), e.getMessage(), e);
-            return false;
-        }
+    public Map<String, Object> indexProduct(ProductIndexDto product, boolean waitForRefresh) throws IOException {
+        log.info("Indexing product: {}", product.getId());
+        return bulkIndexProducts(List.of(product), waitForRefresh);
     }
 
     /**
-     * Index nhiều sản phẩm vào Elasticsearch (bulk)
+     * Index nhiều sản phẩm vào Elasticsearch (bulk).
+     * Ghi bằng cùng thao tác với sự kiện Kafka nên giữ lại tín hiệu (soldCount, rating, reviewCount) và
+     * cập nhật index theo người bán. Dữ liệu gửi lên không có version nên sản phẩm đã được sự kiện có version
+     * ghi (kể cả tombstone) bị bỏ qua ở mọi index và được trả về trong danh sách skipped.
+     *
+     * @return số sản phẩm đã ghi (indexed), id bị bỏ qua (skipped) và id bị Elasticsearch từ chối (failed)
      */
-    public int bulkIndexProducts(List<ProductIndexDto> products) throws IOException {
-        String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
-        int successCount = 0;
-        
+    public Map<String, Object> bulkIndexProducts(List<ProductIndexDto> products, boolean waitForRefresh) throws IOException {
         try {
-            // Kiểm tra xem index đã tồn tại chưa, nếu chưa thì tạo mới
-            boolean exists = client.indices().exists(e -> e.index(indexName)).value();
-            if (!exists) {
-                recreateIndex();
-            }
-            
-            // Sử dụng bulk indexing để tối ưu hiệu suất
-            BulkRequest.Builder bulkRequest = new BulkRequest.Builder();
-            
+            Map<String, ProductDocument> documents = new LinkedHashMap<>();
             for (ProductIndexDto product : products) {
-                bulkRequest.operations(op -> op
-                    .index(idx -> idx
-                        .index(indexName)
-                        .id(product.getId())
-                        .document(product)
-                    )
-                );
+                documents.put(product.getId(), product.toProductDocument());
             }
-            
-            BulkResponse bulkResponse = client.bulk(bulkRequest.build());
-            
-            // Đếm số lượng thành công
-            successCount = (int) bulkResponse.items().stream()
-                .filter(item -> item.error() == null)
-                .count();
-            
-            // Refresh index để đảm bảo dữ liệu có sẵn cho tìm kiếm
-            client.indices().refresh(r -> r.index(indexName));
-            
-            log.info("Successfully bulk indexed {}/{} products", successCount, products.size());
-            return successCount;
+            Map<String, ProductDocument> changes = bulkIngester.withoutVersioned(documents);
+            List<String> skipped = new ArrayList<>();
+            documents.keySet().stream()
+                .filter(id -> !changes.containsKey(id))
+                .forEach(skipped::add);
+            List<String> failed = new ArrayList<>();
+
+            if (!changes.isEmpty()) {
+                List<BulkOperation> operations = new ArrayList<>(changes.size());
+                changes.values().forEach(document -> operations.add(bulkIngester.indexOperation(document)));
+                BulkResponse bulkResponse = writeProducts(operations, changes, waitForRefresh);
+
+                // Các phần tử đầu ứng với từng sản phẩm trên index chính; noop nghĩa là sự kiện có version
+                // đã ghi sản phẩm sau lần kiểm tra ở trên
+                for (BulkResponseItem item : bulkResponse.items().subList(0, operations.size())) {
+                    if (item.error() != null) {
+                        log.error("Error indexing product {}: {}", item.id(), item.error().reason());
+                        failed.add(item.id());
+                    } else if (Result.NoOp.jsonValue().equals(item.result())) {
+                        skipped.add(item.id());
+                    }
+                }
+            }
+
+            int indexed = documents.size() - skipped.size() - failed.size();
+            log.info("Bulk indexed {}/{} products, skipped {} already versioned by events, {} failed",
+                indexed, documents.size(), skipped.size(), failed.size());
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("indexed", indexed);
+            result.put("skipped", skipped);
+            result.put("failed", failed);
+            return result;
         } catch (Exception e) {
             log.error("Error bulk indexing products: {}", e.getMessage(), e);
             throw e;
@@ -523,30 +1015,17 @@ public class SearchService {
     }
 
     /**
-     * Xóa sản phẩm khỏi Elasticsearch
+     * Xóa sản phẩm khỏi Elasticsearch, kể cả bản trong index theo người bán
      */
-    public boolean deleteProduct(String productId) throws IOException {
-        String indexName = elasticsearchConfig.getIndexSettings().getProducts().getName();
-        
+    public boolean deleteProduct(String productId, boolean waitForRefresh) throws IOException {
         try {
-            // Kiểm tra xem index đã tồn tại chưa
-            boolean exists = client.indices().exists(e -> e.index(indexName)).value();
-            if (!exists) {
-                log.warn("Index {} does not exist, cannot delete product", indexName);
-                return false;
-            }
-            
-            // Xóa sản phẩm theo ID
             log.info("Deleting product: {}", productId);
-            DeleteResponse response = client.delete(d -> d
-                .index(indexName)
-                .id(productId)
-            );
-            
-            // Refresh index để đảm bảo thay đổi có hiệu lực ngay lập tức
-            client.indices().refresh(r -> r.index(indexName));
-            
-            boolean success = response.result() == Result.Deleted;
+            Map<String, ProductDocument> changes = new HashMap<>();
+            changes.put(productId, null);
+            BulkResponse response = writeProducts(List.of(bulkIngester.deleteOperation(productId)), changes, waitForRefresh);
+
+            BulkResponseItem item = response.items().get(0);
+            boolean success = item.error() == null && Result.Deleted.jsonValue().equals(item.result());
             log.info("Delete product {}: {}", productId, success ? "successful" : "not found");
             return success;
         } catch (Exception e) {
@@ -554,4 +1033,40 @@ public class SearchService {
             return false;
         }
     }
+
+    /**
+     * Ghi các thao tác trên index chính cùng thao tác tương ứng của index theo người bán,
+     * sau đó cập nhật cache và các index cục bộ như khi xử lý sự kiện sản phẩm
+     */
+    private BulkResponse writeProducts(List<BulkOperation> operations, Map<String, ProductDocument> changes,
+                                       boolean waitForRefresh) throws IOException {
+        Map<String, ProductDocument> current = bulkIngester.currentDocuments(changes.keySet());
+        List<BulkOperation> batch = new ArrayList<>(operations);
+        batch.addAll(bulkIngester.sellerOperations(changes, current));
+        BulkResponse response = bulkIngester.execute(batch, refreshPolicy(waitForRefresh));
+
+        if (changes.containsValue(null)) {
+            searchResultCache.invalidateAll();
+        } else {
+            // Cả danh mục cũ của sản phẩm chuyển danh mục
+            Set<String> categories = new HashSet<>();
+            changes.forEach((productId, document) -> {
+                categories.add(document.getCategoryName());
+                if (current.containsKey(productId)) {
+                    categories.add(current.get(productId).getCategoryName());
+                }
+            });
+            searchResultCache.invalidateCategories(categories);
+        }
+        productNameIndex.apply(changes);
+        localProductIndex.apply(changes);
+        return response;
+    }
+
+    /**
+     * wait_for chờ lần refresh kế tiếp thay vì ép Elasticsearch tạo segment mới cho mỗi lần ghi
+     */
+    private Refresh refreshPolicy(boolean waitForRefresh) {
+        return waitForRefresh ? Refresh.WaitFor : Refresh.False;
+    }
 } 
@@ -0,0 +1,84 @@
+package com.fourj.searchservice.service;
+
+import com.fourj.searchservice.dto.SearchRequest;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Làm mới các truy vấn đã được trả bản cũ từ LastKnownGoodStore khi Elasticsearch hoạt động lại.
+ * Chỉ chạy khi circuit breaker đã đóng, để không dồn thêm tải lúc Elasticsearch đang hồi phục.
+ */
+@Component
+@Slf4j
+public class StaleSearchRevalidator {
+
+    private static final String CIRCUIT_BREAKER = "elasticsearch";
+
+    private final SearchService searchService;
+    private final LastKnownGoodStore lastKnownGoodStore;
+    private final CircuitBreaker circuitBreaker;
+    private final long intervalSeconds;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "stale-search-revalidate");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StaleSearchRevalidator(SearchService searchService,
+                                  LastKnownGoodStore lastKnownGoodStore,
+                                  CircuitBreakerRegistry circuitBreakerRegistry,
+                                  @Value("${search-fallback.revalidate-interval:10}") long intervalSeconds) {
+        this.searchService = searchService;
+        this.lastKnownGoodStore = lastKnownGoodStore;
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(CIRCUIT_BREAKER);
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    @PostConstruct
+    public void start() {
+        // Làm mới ngay khi breaker đóng lại, kiểm tra định kỳ cho các lỗi không làm breaker mở
+        circuitBreaker.getEventPublisher().onStateTransition(event -> {
+            if (event.getStateTransition().getToState() == CircuitBreaker.State.CLOSED) {
+                scheduler.execute(this::revalidate);
+            }
+        });
+        scheduler.scheduleWithFixedDelay(this::revalidate, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    void revalidate() {
+        if (circuitBreaker.getState() != CircuitBreaker.State.CLOSED || !lastKnownGoodStore.hasPendingRevalidations()) {
+            return;
+        }
+        List<SearchRequest> requests = lastKnownGoodStore.drainPendingRevalidations();
+        int revalidated = 0;
+        for (SearchRequest request : requests) {
+            try {
+                searchService.revalidateSearch(request);
+                revalidated++;
+            } catch (Exception e) {
+                // Elasticsearch vẫn lỗi: giữ lại phần chưa làm mới cho chu kỳ sau
+                log.warn("Không thể làm mới kết quả cũ: {}", e.getMessage());
+                lastKnownGoodStore.requeue(requests.subList(revalidated, requests.size()));
+                break;
+            }
+        }
+        if (revalidated > 0) {
+            log.info("Revalidated {} search results served stale during Elasticsearch outage", revalidated);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.fourj.searchservice.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.get.GetResult;
+import com.fourj.searchservice.config.ElasticsearchConfig;
+import com.fourj.searchservice.dto.ProductIndexDto;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hồ sơ sở thích danh mục của từng người dùng, tính từ lịch sử đơn hàng.
+ * Hồ sơ nằm trong bộ nhớ (giới hạn số người dùng, bỏ người ít dùng nhất khi đầy) và được ghi xuống Redis
+ * để instance khác và lần khởi động sau dùng lại. Lookup khi tìm kiếm chỉ đọc bộ nhớ; nếu chưa có
+ * thì nạp từ Redis ở background và lần tìm kiếm kế tiếp mới được cá nhân hóa.
+ */
+@Service
+@Slf4j
+public class UserAffinityService {
+
+    private static final String KEY_PREFIX = "search:affinity:";
+
+    private final ElasticsearchClient client;
+    private final ElasticsearchConfig elasticsearchConfig;
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final boolean enabled;
+    private final int categoriesPerUser;
+    private final double decay;
+    private final double boost;
+    private final Duration redisTtl;
+
+    private final Cache<String, UserAffinity> profiles;
+    // Người dùng đang được nạp từ Redis, tránh gửi nhiều lệnh GET cho cùng một người
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "user-affinity-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UserAffinityService(ElasticsearchClient client,
+                               ElasticsearchConfig elasticsearchConfig,
+                               RedisTemplate<String, Object> redisTemplate,
+                               @Value("${personalization.enabled:true}") boolean enabled,
+                               @Value("${personalization.max-users:100000}") long maxUsers,
+                               @Value("${personalization.local-ttl:600}") long localTtlSeconds,
+                               @Value("${personalization.categories-per-user:8}") int categoriesPerUser,
+                               @Value("${personalization.decay:0.9}") double decay,
+                               @Value("${personalization.boost:0.5}") double boost,
+                               @Value("${personalization.redis-ttl-days:30}") long redisTtlDays) {
+        this.client = client;
+        this.elasticsearchConfig = elasticsearchConfig;
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.categoriesPerUser = categoriesPerUser;
+        this.decay = decay;
+        this.boost = boost;
+        this.redisTtl = Duration.ofDays(redisTtlDays);
+        // Hết hạn sau local-ttl để nhận thay đổi do instance khác ghi vào Redis
+        this.profiles = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterWrite(Duration.ofSeconds(localTtlSeconds))
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * Mức tăng điểm tối đa cho danh mục được mua nhiều nhất
+     */
+    public double getBoost() {
+        return boost;
+    }
+
+    /**
+     * Hồ sơ của người dùng nếu đã có trong bộ nhớ, không bao giờ chờ Redis
+     */
+    public UserAffinity lookup(String userId) {
+        if (!enabled || !StringUtils.hasText(userId)) {
+            return UserAffinity.EMPTY;
+        }
+        UserAffinity affinity = profiles.getIfPresent(userId);
+        if (affinity != null) {
+            return affinity;
+        }
+        if (loading.add(userId)) {
+            loader.submit(() -> {
+                try {
+                    profiles.put(userId, readFromRedis(userId));
+                } finally {
+                    loading.remove(userId);
+                }
+            });
+        }
+        return UserAffinity.EMPTY;
+    }
+
+    /**
+     * Cập nhật hồ sơ từ một lô đơn hàng
+     *
+     * @param purchases userId -> (productId -> số lượng)
+     */
+    public void recordPurchases(Map<String, Map<String, Long>> purchases) {
+        if (!enabled || purchases.isEmpty()) {
+            return;
+        }
+        Set<String> productIds = new HashSet<>();
+        purchases.values().forEach(items -> productIds.addAll(items.keySet()));
+        Map<String, String> categories = categoriesOf(productIds);
+
+        purchases.forEach((userId, items) -> {
+            Map<String, Double> added = new HashMap<>();
+            items.forEach((productId, quantity) -> {
+                String category = categories.get(productId);
+                if (category != null) {
+                    added.merge(category, (double) quantity, Double::sum);
+                }
+            });
+            if (added.isEmpty()) {
+                return;
+            }
+            UserAffinity current = profiles.getIfPresent(userId);
+            if (current == null) {
+                current = readFromRedis(userId);
+            }
+            UserAffinity updated = current.merge(added, decay, categoriesPerUser);
+            profiles.put(userId, updated);
+            writeToRedis(userId, updated);
+        });
+    }
+
+    private Map<String, String> categoriesOf(Set<String> productIds) {
+        Map<String, String> categories = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return categories;
+        }
+        try {
+            MgetResponse<ProductIndexDto> response = client.mget(m -> m
+                    .index(elasticsearchConfig.getIndexSettings().getProducts().getAlias())
+                    .ids(new ArrayList<>(productIds))
+                    .sourceIncludes("categoryName"), ProductIndexDto.class);
+            response.docs().forEach(doc -> {
+                if (doc.isResult()) {
+                    GetResult<ProductIndexDto> result = doc.result();
+                    if (result.found() && result.source() != null
+                            && StringUtils.hasText(result.source().getCategoryName())) {
+                        categories.put(result.id(), result.source().getCategoryName());
+                    }
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Could not load categories for {} purchased products: {}", productIds.size(), e.getMessage());
+        }
+        return categories;
+    }
+
+    @SuppressWarnings("unchecked")
+    private UserAffinity readFromRedis(String userId) {
+        try {
+            Object value = redisTemplate.opsForValue().get(KEY_PREFIX + userId);
+            if (value instanceof Map<?, ?> weights) {
+                return UserAffinity.of((Map<String, Number>) weights);
+            }
+        } catch (Exception e) {
+            log.debug("Could not read affinity of user {}: {}", userId, e.getMessage());
+        }
+        return UserAffinity.EMPTY;
+    }
+
+    private void writeToRedis(String userId, UserAffinity affinity) {
+        try {
+            redisTemplate.opsForValue().set(KEY_PREFIX + userId, affinity.toMap(), redisTtl);
+        } catch (Exception e) {
+            log.debug("Could not write affinity of user {}: {}", userId, e.getMessage());
+        }
+    }
+
+    /**
+     * Các danh mục ưa thích và trọng số (số lượng đã mua, có giảm dần theo thời gian), sắp xếp giảm dần.
+     * Lưu bằng hai mảng song song cho gọn bộ nhớ.
+     */
+    public static final class UserAffinity {
+
+        public static final UserAffinity EMPTY = new UserAffinity(new String[0], new double[0]);
+
+        private final String[] categories;
+        private final double[] weights;
+
+        private UserAffinity(String[] categories, double[] weights) {
+            this.categories = categories;
+            this.weights = weights;
+        }
+
+        static UserAffinity of(Map<String, ? extends Number> raw) {
+            List<Map.Entry<String, ? extends Number>> entries = new ArrayList<>(raw.entrySet());
+            entries.sort((a, b) -> Double.compare(b.getValue().doubleValue(), a.getValue().doubleValue()));
+            String[] categories = new String[entries.size()];
+            double[] weights = new double[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                categories[i] = entries.get(i).getKey();
+                weights[i] = entries.get(i).getValue().doubleValue();
+            }
+            return new UserAffinity(categories, weights);
+        }
+
+        /**
+         * Giảm trọng số cũ theo decay, cộng phần mua mới và chỉ giữ limit danh mục cao nhất
+         */
+        UserAffinity merge(Map<String, Double> added, double decay, int limit) {
+            Map<String, Double> combined = new HashMap<>();
+            for (int i = 0; i < categories.length; i++) {
+                combined.put(categories[i], weights[i] * decay);
+            }
+            added.forEach((category, quantity) -> combined.merge(category, quantity, Double::sum));
+            UserAffinity sorted = of(combined);
+            int size = Math.min(limit, sorted.categories.length);
+            String[] keptCategories = new String[size];
+            double[] keptWeights = new double[size];
+            System.arraycopy(sorted.categories, 0, keptCategories, 0, size);
+            System.arraycopy(sorted.weights, 0, keptWeights, 0, size);
+            return new UserAffinity(keptCategories, keptWeights);
+        }
+
+        public boolean isEmpty() {
+            return categories.length == 0;
+        }
+
+        public int size() {
+            return categories.length;
+        }
+
+        public String category(int index) {
+            return categories[index];
+        }
+
+        /**
+         * Trọng số tương đối so với danh mục được mua nhiều nhất
+         */
+        public double normalizedWeight(int index) {
+            return weights[0] > 0 ? weights[index] / weights[0] : 0;
+        }
+
+        Map<String, Double> toMap() {
+            Map<String, Double> map = new LinkedHashMap<>();
+            for (int i = 0; i < categories.length; i++) {
+                map.put(categories[i], weights[i]);
+            }
+            return map;
+        }
+    }
+}